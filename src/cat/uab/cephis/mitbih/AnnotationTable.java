@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.util.Arrays;
+
+/**
+ * Beat annotations of a record, stored as a struct of arrays.
+ *
+ * For every beat the sample, the typecode (AtrReader.NORMAL, PVC, PACE...),
+ * the subtype and the channel are kept. The times are the same array that
+ * AtrReader.getBeats returns, so the index of a beat in a BeatMatch is also
+ * its index in the table.
+ *
+ * @author dcr
+ */
+public class AnnotationTable
+{
+    private int size = 0;
+    private int[] time;
+    private byte[] type;
+    private byte[] subtype;
+    private byte[] channel;
+
+    public AnnotationTable()
+    {
+        this(1024);
+    }
+
+    public AnnotationTable(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+
+        time = new int[capacity];
+        type = new byte[capacity];
+        subtype = new byte[capacity];
+        channel = new byte[capacity];
+    }
+
+    /**
+     * Add an annotation at the end of the table
+     * @param t sample
+     * @param typecode
+     * @param sub subtype
+     * @param chan channel
+     */
+    void add(int t, int typecode, int sub, int chan)
+    {
+        if (size == time.length)
+        {
+            int capacity = size * 2;
+
+            time = Arrays.copyOf(time, capacity);
+            type = Arrays.copyOf(type, capacity);
+            subtype = Arrays.copyOf(subtype, capacity);
+            channel = Arrays.copyOf(channel, capacity);
+        }
+
+        time[size] = t;
+        type[size] = (byte) typecode;
+        subtype[size] = (byte) sub;
+        channel[size] = (byte) chan;
+        size++;
+    }
+
+    /**
+     * Set the subtype of the last annotation
+     * @param sub
+     */
+    void setSubtype(int sub)
+    {
+        subtype[size-1] = (byte) sub;
+    }
+
+    /**
+     * Set the channel of the last annotation
+     * @param chan
+     */
+    void setChannel(int chan)
+    {
+        channel[size-1] = (byte) chan;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getTime(int i)
+    {
+        return time[i];
+    }
+
+    public int getType(int i)
+    {
+        return type[i];
+    }
+
+    public int getSubtype(int i)
+    {
+        return subtype[i];
+    }
+
+    public int getChannel(int i)
+    {
+        return channel[i];
+    }
+
+    /**
+     * @return the samples of all the annotations (as AtrReader.getBeats)
+     */
+    public int[] getTimes()
+    {
+        return Arrays.copyOf(time, size);
+    }
+
+    /**
+     * @return the memory used by the table in bytes
+     */
+    long getBytes()
+    {
+        return 7L * time.length;
+    }
+}
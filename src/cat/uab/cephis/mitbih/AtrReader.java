@@ -23,25 +23,86 @@
  */
 package cat.uab.cephis.mitbih;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
+ * Reader of WFDB annotation files (MIT format).
+ *
+ * The file is memory mapped and decoded as a stream: next() moves to the
+ * next annotation and the getters return its fields. SKIP, NUM, SUBTYP,
+ * CHN and AUX words are applied to the annotation they belong to, so
+ * every annotation code is handled. The decoder never allocates, except
+ * getAux, so any file size can be walked in bounded memory.
+ *
+ * Malformed input (unknown codes, SUBTYP or AUX without annotation,
+ * truncated SKIP or AUX payloads) is reported to the ErrorListener and
+ * the decoding goes on (or stops at the end of the file), it never stops
+ * the program.
  *
  * @author dcr
  */
 public class AtrReader
 {
-    private final BufferedInputStream bis;
+    public interface ErrorListener
+    {
+        /**
+         * @param position byte offset of the wrong word in the file
+         * @param message
+         */
+        void error(int position, String message);
+    }
+    
+    /**
+     * Number of annotations between the entries of the time index
+     */
+    private static final int INDEX_STEP = 256;
+    
+    /**
+     * Highest code of an annotation (the rest are pseudo annotations)
+     */
+    private static final int ACMAX = 49;
+    
+    private final ByteBuffer buffer;
     private final int channel;
     
+    private ErrorListener listener = new ErrorListener()
+    {
+        @Override
+        public void error(int position, String message)
+        {
+            System.err.println("Annotation error at byte " + position + ": " + message);
+        }
+    };
+    
+    // position of the next annotation and time of the previous one
+    private int position = 0;
+    private int time = 0;
+    
+    // fields of the current annotation, num and chan are kept for the next ones
+    private int annTime;
+    private int annType;
+    private int annSubtype;
+    private int annChannel;
+    private int annNum;
+    private int auxPosition;
+    private int auxLength;
+    
+    // time index, built the first time it is needed
+    private int[] indexTime;
+    private int[] indexPosition;
+    private int[] indexChannel;
+    private int[] indexNum;
+    private int indexSize;
+    
     public AtrReader(File file, int channel) throws FileNotFoundException, MalformedURLException, IOException
     {
         if (!file.exists())
@@ -53,7 +114,11 @@ public class AtrReader
             Wget.get(url, file);
         }
         
-        bis = new BufferedInputStream(new FileInputStream(file));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel fc = raf.getChannel())
+        {
+            buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
         
         this.channel = channel;
                
@@ -62,68 +127,341 @@ public class AtrReader
     }
     
     /**
-     * Reads a sample from the first channel of the DAT file.
-     * 
-     * The DAT file is organized in 212 format  i.e.
-     * 
-     * [ 7 6 5 4 3 2 1 0 ] [ 7 6 4 5  3 2 1 0 ] [ 7 6 4 5 3 2 1 0 ] 
-     * [  Channel 0 Low  ] [ Ch 1 H ][ Ch 0 L ] [  Channel 1 Low  ]
-     * 
-     * @return -1 if nothing read
-     * 
-     * @throws java.io.IOException 
+     * @param listener receives the errors found in the file (they are printed to stderr by default)
      */
-    public int get() throws IOException
+    public void setErrorListener(ErrorListener listener)
     {
-        byte[] buff = new byte[3];
-        
-        int n = bis.read(buff, 0, 3);
-        
-        if (n == -1)
-            return -1;
+        this.listener = listener;
+    }
+    
+    /**
+     * Decode the next annotation
+     * @return false at the end of the file
+     */
+    public boolean next()
+    {
+        int limit = buffer.limit();
         
-        if (n != 3)
-            throw new RuntimeException("Read less than 3 = " +  n);
+        while (true)
+        {
+            if (position + 2 > limit)
+            {
+                if (position < limit)
+                    listener.error(position, "Truncated annotation");
+                
+                position = limit;
+                return false;
+            }
+            
+            int b0 = buffer.get(position) & 0xFF;
+            int b1 = buffer.get(position+1) & 0xFF;
+            
+            int value = b0 | (b1 & 0x03) << 8;
+            int typecode = (b1 >> 2) & 0x3F;
+            
+            // end of file mark
+            if (typecode == 0 && value == 0)
+                return false;
+            
+            position += 2;
+            
+            if (typecode == SKIP)
+            {
+                time += readSkip();
+            }
+            else if (typecode == CHN)
+            {
+                // channel and number are kept for the next annotations
+                annChannel = value;
+            }
+            else if (typecode == NUM)
+            {
+                annNum = value;
+            }
+            else if (typecode == SUBTYP || typecode == AUX)
+            {
+                listener.error(position - 2, "Code " + typecode + " without annotation");
+                
+                if (typecode == AUX)
+                    skipAux(value);
+            }
+            else if (typecode > ACMAX)
+            {
+                listener.error(position - 2, "Unknown code " + typecode);
+            }
+            else
+            {
+                time += value;
+                
+                annTime = time;
+                annType = typecode;
+                annSubtype = 0;
+                auxLength = 0;
+                
+                readModifiers();
+                
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * Apply the NUM, SUBTYP, CHN and AUX words that follow an annotation.
+     * As in WFDB, they can come after a SKIP word, that only moves the 
+     * time of the next annotation
+     */
+    private void readModifiers()
+    {
+        while (position + 2 <= buffer.limit())
+        {
+            int b0 = buffer.get(position) & 0xFF;
+            int b1 = buffer.get(position+1) & 0xFF;
+            
+            int value = b0 | (b1 & 0x03) << 8;
+            int typecode = (b1 >> 2) & 0x3F;
+            
+            if (typecode == SUBTYP)
+                annSubtype = value;
+            else if (typecode == CHN)
+                annChannel = value;
+            else if (typecode == NUM)
+                annNum = value;
+            else if (typecode != AUX && typecode != SKIP)
+                return;
+            
+            position += 2;
+            
+            if (typecode == SKIP)
+                time += readSkip();
+            else if (typecode == AUX)
+            {
+                auxPosition = position;
+                auxLength = skipAux(value);
+            }
+        }
+    }
+    
+    /**
+     * Skip the payload of an AUX word (padded to an even length)
+     * @param length
+     * @return the length of the payload, 0 if it is truncated
+     */
+    private int skipAux(int length)
+    {
+        int padded = length + (length & 1);
         
-        if (channel == 0)
+        if (position + padded > buffer.limit())
         {
-            int r = ((((byte)(buff[1] << 4) >> 4) << 8)) | (buff[0] & 0xFF);
-            //System.out.println("r=" + r);
-            return r;
+            listener.error(position - 2, "Truncated AUX of " + length + " bytes");
+            position = buffer.limit();
+            return 0;
         }
-        else
+        
+        position += padded;
+        
+        return length;
+    }
+    
+    /**
+     * @return the typecode of the current annotation
+     */
+    public int getType()
+    {
+        return annType;
+    }
+    
+    /**
+     * @return the sample of the current annotation
+     */
+    public int getTime()
+    {
+        return annTime;
+    }
+    
+    public int getSubtype()
+    {
+        return annSubtype;
+    }
+    
+    public int getChannel()
+    {
+        return annChannel;
+    }
+    
+    public int getNum()
+    {
+        return annNum;
+    }
+    
+    /**
+     * @return the AUX string of the current annotation, null if it has none
+     */
+    public String getAux()
+    {
+        if (auxLength == 0)
+            return null;
+        
+        byte[] aux = new byte[auxLength];
+        
+        for (int i=0; i < auxLength; i++)
+            aux[i] = buffer.get(auxPosition + i);
+        
+        int len = auxLength;
+        
+        // the strings are usually ended by a 0
+        while (len > 0 && aux[len-1] == 0)
+            len--;
+        
+        return new String(aux, 0, len, StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * @param typecode
+     * @return true for the codes of QRS complexes (as isqrs in WFDB)
+     */
+    public static boolean isBeat(int typecode)
+    {
+        switch (typecode)
         {
-            int r = (( (buff[1] & 0xF0)) << (8-4)) | (buff[2] & 0xFF);
-            return r;
+            case 1: case 2: case 3: case 4: case 5: case 6: case 7: case 8: 
+            case 9: case 10: case 11: case 12: case 13: 
+            case 25: case 30: case 34: case 35: case 38: case 41:
+                return true;
+            default:
+                return false;
         }
     }
     
     /**
-     * 
-     * @param buff
-     * @return the number of bytes read
+     * Skip the annotations of the next k samples
+     * @param k
      * @throws IOException 
      */
-//    public int getBeats() throws IOException
-//    {
-//        for (int i=0; i < buff.length; i++)
-//        {
-//            buff[i] = get();
-//            
-//            if (buff[i] == -1)
-//            {
-//                buff[i] = 0;
-//                return i-1;
-//            }
-//        }
-//        
-//        return buff.length;
-//    }
-
     void skip(int k) throws IOException {
-        for (int i= 0; i < k; i++)
-            get();
+        seek(time + k);
+    }
+    
+    /**
+     * Position the reader at the first annotation at or after the sample t.
+     * The annotations before it are not decoded, the time index is used to jump 
+     * close to t.
+     * @param t 
+     */
+    void seek(int t)
+    {
+        if (indexTime == null)
+            buildIndex();
+        
+        // last entry of the index before t
+        int lo = 0;
+        int hi = indexSize - 1;
         
+        while (lo < hi)
+        {
+            int mid = (lo + hi + 1) >>> 1;
+            
+            if (indexTime[mid] < t)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        
+        position = indexPosition[lo];
+        time = indexTime[lo];
+        annChannel = indexChannel[lo];
+        annNum = indexNum[lo];
+        
+        // walk until the annotation at t
+        while (true)
+        {
+            int savedPosition = position;
+            int savedTime = time;
+            int savedChannel = annChannel;
+            int savedNum = annNum;
+            
+            if (!next())
+                break;
+            
+            if (annTime >= t)
+            {
+                position = savedPosition;
+                time = savedTime;
+                annChannel = savedChannel;
+                annNum = savedNum;
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Scan all the annotations, storing the state before one every INDEX_STEP
+     */
+    private void buildIndex()
+    {
+        int savedPosition = position;
+        int savedTime = time;
+        int savedChannel = annChannel;
+        int savedNum = annNum;
+        
+        indexTime = new int[16];
+        indexPosition = new int[16];
+        indexChannel = new int[16];
+        indexNum = new int[16];
+        indexSize = 0;
+        
+        position = 0;
+        time = 0;
+        annChannel = 0;
+        annNum = 0;
+        
+        for (int k=0; ; k++)
+        {
+            if ((k % INDEX_STEP) == 0)
+            {
+                if (indexSize == indexTime.length)
+                {
+                    indexTime = Arrays.copyOf(indexTime, indexSize * 2);
+                    indexPosition = Arrays.copyOf(indexPosition, indexSize * 2);
+                    indexChannel = Arrays.copyOf(indexChannel, indexSize * 2);
+                    indexNum = Arrays.copyOf(indexNum, indexSize * 2);
+                }
+                
+                indexTime[indexSize] = time;
+                indexPosition[indexSize] = position;
+                indexChannel[indexSize] = annChannel;
+                indexNum[indexSize] = annNum;
+                indexSize++;
+            }
+            
+            if (!next())
+                break;
+        }
+        
+        position = savedPosition;
+        time = savedTime;
+        annChannel = savedChannel;
+        annNum = savedNum;
+    }
+    
+    /**
+     * Reads the 4 bytes of the interval of a SKIP annotation
+     * @return 
+     */
+    private int readSkip()
+    {
+        if (position + 4 > buffer.limit())
+        {
+            listener.error(position - 2, "Truncated SKIP");
+            position = buffer.limit();
+            return 0;
+        }
+        
+        int period = (buffer.get(position) & 0xff) << 16 | (buffer.get(position+1) & 0xff) << 24 
+                | (buffer.get(position+2) & 0xff) | (buffer.get(position+3) & 0xff) << 8;
+        
+        position += 4;
+        
+        return period;
     }
 
 //    
@@ -201,165 +539,99 @@ public class AtrReader
     public static int SKIP = 59;
     public static int NUM = 60;
     public static int SUBTYP = 61;
+    public static int CHN = 62;
     public static int AUX = 63;
 
     public boolean verbose = false;
 
-    int[] getBeatsAfter(int v) throws IOException
+    /**
+     * @param typecode
+     * @return the WFDB mnemonic of a beat typecode (e.g. "N" for NORMAL)
+     */
+    public static String getName(int typecode)
     {
-        int[] r = getBeats();
-        ArrayList<Integer> beats = new ArrayList<>();
-        
-        for (int i=0; i < r.length; i++)
+        switch (typecode)
         {
-            if (r[i] > v)
-                beats.add(r[i]-v);
+            case 1: return "N";
+            case 2: return "L";
+            case 3: return "R";
+            case 4: return "a";
+            case 5: return "V";
+            case 6: return "F";
+            case 7: return "J";
+            case 8: return "A";
+            case 9: return "S";
+            case 10: return "E";
+            case 11: return "j";
+            case 12: return "/";
+            case 13: return "Q";
+            case 25: return "B";
+            case 30: return "?";
+            case 34: return "e";
+            case 35: return "n";
+            case 38: return "f";
+            case 41: return "r";
+            default: return "" + typecode;
         }
+    }
+
+    /**
+     * @param v sample
+     * @return the time of the beats after the sample v, relative to v
+     * @throws IOException 
+     */
+    int[] getBeatsAfter(int v) throws IOException
+    {
+        seek(v+1);
         
-        int[] aBeats = new int[beats.size()];
+        int[] beats = getBeats();
         
-        for (int i=0; i < beats.size(); i++)
-        {
-            aBeats[i] = beats.get(i).intValue();
-        }
+        for (int i=0; i < beats.length; i++)
+            beats[i] -= v;
         
-        return aBeats;
+        return beats;
     }
     
     /**
+     * @return the time of the beats from the current position
+     * @throws IOException 
+     */
+    int[] getBeats() throws IOException 
+    {
+        return getAnnotations().getTimes();
+    }
+    
+    /**
+     * Decode the beat annotations from the current position, with their 
+     * typecode, subtype and channel.
+     * The channel is kept from one annotation to the next, as in WFDB.
+     * 
      * [ 7 6 5 4 3 2 1 0 ] [ 7 6 5 4 3 2  1 0 ]  
      * [  Time Low       ] [ typecode   ][ TH ] 
      * @return
      * @throws IOException 
      */
-    int[] getBeats() throws IOException 
+    AnnotationTable getAnnotations() throws IOException 
     {
-        ArrayList<Integer> beats = new ArrayList<>();
-        
-        byte[] buff = new byte[2];
+        AnnotationTable beats = new AnnotationTable();
         
-        int n=0;
-        int totalTime = 0;
-        
-        do
+        while (next())
         {
-            n = bis.read(buff, 0, 2);
-        
-            if (n == -1)
-                break;
-        
-            int time = (buff[0] & 0xFF)  | (buff[1] & 0x03)<< 8;
-            int typecode = (buff[1]>>2) & 0x3F;
-            
-           if ((typecode == BBB) || (typecode == RONT) || (typecode == SVESC) || (typecode == LEARN))
-	   {
-	       throw new RuntimeException("Found unhandled BEAT typecode " + typecode);
-	   }
-            if (( typecode == NORMAL) || (typecode == LBBB) || (typecode == PVC) || (typecode == APC) 
-                    || (typecode == SVPB) || (typecode == ABERR) || (typecode == NPC)|| (typecode == NESC) 
-                    || (typecode == FUSION) || (typecode == UNKNOWN) || (typecode == RBBB) || (typecode == PACE)
-                    || (typecode == PFUS) || (typecode == VESC) || (typecode == AESC))
+            if (isBeat(annType))
             {
-                totalTime += time;
-                beats.add(totalTime);
+                beats.add(annTime, annType, annSubtype, annChannel);
                 
-                if (verbose) System.out.println("BEAT("+typecode+") at " + totalTime );
+                if (verbose) System.out.println("BEAT("+annType+") at " + annTime);
             }
-            else if (typecode == NOTQRS)
+            else if (verbose)
             {
-                totalTime += time;
+                System.out.println("Annotation(" + annType + ") at " + annTime);
             }
-            else if (typecode == VFON)
-            {
-                totalTime += time;
-            }
-            else if (typecode == VFOFF)
-            {
-                totalTime += time;
-            }
-            else if (typecode == SKIP)
-            {
-                
-                byte[] aux = new byte[4];
-                int n2 = bis.read(aux, 0, 4);
-                
-                int period = (aux[0] & 0xff) << 16 | (aux[1] & 0xff) << 24 | (aux[2]& 0xff) | (aux[3]& 0xff) << 8;
-
-                if (verbose) System.out.println("Skip:" + period + " in " + totalTime);
-                
-                totalTime += period;
-            }
-            else if (typecode == NOTE)
-            {
-                totalTime += time;
-            }
-            else if (typecode == FLWAV)
-            {
-                totalTime += time;
-            }
-            else if (typecode == ARFCT)
-            {
-                totalTime += time;
-            }
-            else if (typecode == AUX)
-            {
-                int tr = time;
-                if ((tr % 2)== 1)
-                    tr++;
-                
-                byte[] aux = new byte[tr];
-                
-                int n2 = bis.read(aux, 0, tr);
-                
-                if (verbose) System.out.println("Aux:"  + new String(aux, 0, time-1, Charset.defaultCharset()));
-            }
-            else if (typecode == SUBTYP)
-            {
-                if (verbose) System.out.println("Subtype:" + time);
-            }
-            else if (typecode == NUM)
-            {
-                if (verbose) System.out.println("Num field: " + time);
-            }
-            else if (typecode == RHYTHM)
-            {
-                if (verbose) System.out.println("Rhythm Change at " + totalTime);
-                totalTime += time;
-            }
-            else if (typecode == NOISE)
-            {
-                if (verbose) System.out.println("Noise at " + time);
-                totalTime += time;
-            }
-            else if (typecode == NAPC)
-            {
-                if (verbose) System.out.println("NAPC " + time);
-                totalTime += time;
-            }
-            else
-            {
-                if (typecode < 50)
-                {
-                    totalTime += time;
-                    System.err.println("Unhandled typecode " + typecode + " at time "  + totalTime);
-                    System.exit(-1);
-                }
-                else
-                {
-                    System.err.println("Unexpected typecode " + typecode);
-                }
-                    
-            }            
-        } while (n != -1);
-        
-        
-        int[] aBeats = new int[beats.size()];
-        
-        for (int i=0; i < beats.size(); i++)
-        {
-            aBeats[i] = beats.get(i).intValue();
+            
+            if (verbose && auxLength > 0)
+                System.out.println("Aux:" + getAux());
         }
         
-        return aBeats;
+        return beats;
     }
 }
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Detects the beats of a whole record
+ *
+ * @author dcr
+ */
+public interface BeatDetector
+{
+    /**
+     * Intermediate signals of a detection, plotted by ECGProcess.testSingle
+     */
+    class Trace
+    {
+        final List<String> names = new ArrayList<String>();
+        final List<double[]> signals = new ArrayList<double[]>();
+        
+        /**
+         * threshold applied to the last signal, null if not known
+         */
+        double[] threshold;
+        
+        /**
+         * @param name
+         * @param signal intermediate signal, with one value per input sample
+         */
+        void add(String name, double[] signal)
+        {
+            names.add(name);
+            signals.add(signal);
+        }
+    }
+    
+    /**
+     * @param chunk0 samples of the lead 0
+     * @param chunk1 samples of the lead 1
+     * @return the positions of the detected beats
+     */
+    int[] detect(double[] chunk0, double[] chunk1);
+    
+    /**
+     * Detects the beats of a whole record keeping the intermediate signals.
+     * By default nothing is traced
+     * @param chunk0 samples of the lead 0
+     * @param chunk1 samples of the lead 1
+     * @param trace receives the intermediate signals
+     * @return the positions of the detected beats
+     */
+    default int[] detect(double[] chunk0, double[] chunk1, Trace trace)
+    {
+        return detect(chunk0, chunk1);
+    }
+    
+    /**
+     * Detects the beats of a record read from a source.
+     * By default the whole source is buffered and passed to 
+     * detect(double[], double[]), streaming detectors override it so that the 
+     * memory used does not depend on the length of the record.
+     * @param source
+     * @return the positions of the detected beats, relative to the start of 
+     * the source
+     * @throws IOException 
+     */
+    default int[] detect(RecordSource source) throws IOException
+    {
+        double[] chunk0 = new double[8192];
+        double[] chunk1 = new double[8192];
+        int len = 0;
+        int n;
+        
+        while ((n = source.read(chunk0, chunk1, len, chunk0.length - len)) > 0)
+        {
+            len += n;
+            
+            if (len == chunk0.length)
+            {
+                chunk0 = Arrays.copyOf(chunk0, len * 2);
+                chunk1 = Arrays.copyOf(chunk1, len * 2);
+            }
+        }
+        
+        return detect(Arrays.copyOf(chunk0, len), Arrays.copyOf(chunk1, len));
+    }
+}
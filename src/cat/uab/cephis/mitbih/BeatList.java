@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.util.Arrays;
+
+/**
+ * Collects the beats reported by a detector into a growing int array
+ *
+ * @author dcr
+ */
+public class BeatList implements RidgeThresholdDetector.BeatListener
+{
+    private int[] beats = new int[1024];
+    private int size = 0;
+
+    @Override
+    public void beat(int index)
+    {
+        if (size == beats.length)
+            beats = Arrays.copyOf(beats, size * 2);
+
+        beats[size++] = index;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    public int[] toArray()
+    {
+        return Arrays.copyOf(beats, size);
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.util.Arrays;
+
+/**
+ * Match of the detected beats with the annotated ones.
+ *
+ * Both arrays are walked once, in O(n). A detected beat closer than the
+ * tolerance to the next annotated beat is a true positive, otherwise the
+ * earliest of both is a false positive (detected) or a false negative
+ * (annotated).
+ *
+ * Every event is kept, in the order they are found (increasing position),
+ * as a set of primitive arrays. For a false positive annotation is the
+ * next annotated beat, and for a false negative detection is the next
+ * detected beat. When there is no next beat (errors after the end of the
+ * other array) they are the length of the array.
+ *
+ * @author dcr
+ */
+public class BeatMatch
+{
+    public static final byte TP = 0;
+    public static final byte FP = 1;
+    public static final byte FN = 2;
+
+    /** TP, FP or FN */
+    public final byte[] type;
+    /** sample of the event, the annotated beat for TP and FN, the detected beat for FP */
+    public final int[] position;
+    /** detected - annotated sample for TP, 0 for errors */
+    public final int[] error;
+    /** index in the detected array */
+    public final int[] detection;
+    /** index in the annotated array */
+    public final int[] annotation;
+
+    private final int tp;
+    private final int fp;
+    private final int fn;
+
+    /**
+     * @param detected detected beats (increasing)
+     * @param annotated annotated beats (increasing)
+     * @param tolerance maximum distance in samples of a true positive
+     */
+    public BeatMatch(int[] detected, int[] annotated, int tolerance)
+    {
+        int td = detected.length;
+        int ta = annotated.length;
+        int n = td + ta;
+
+        byte[] type = new byte[n];
+        int[] position = new int[n];
+        int[] error = new int[n];
+        int[] detection = new int[n];
+        int[] annotation = new int[n];
+
+        int size = 0;
+        int tp = 0;
+        int fp = 0;
+        int fn = 0;
+
+        int di = 0;
+        int ai = 0;
+
+        while (di < td || ai < ta)
+        {
+            byte t;
+
+            if (di == td)
+                t = FN;
+            else if (ai == ta)
+                t = FP;
+            else if (Math.abs(detected[di] - annotated[ai]) > tolerance)
+                t = (detected[di] > annotated[ai])? FN : FP;
+            else
+                t = TP;
+
+            type[size] = t;
+            detection[size] = di;
+            annotation[size] = ai;
+
+            switch (t)
+            {
+                case TP:
+                    position[size] = annotated[ai];
+                    error[size] = detected[di] - annotated[ai];
+                    tp++;
+                    di++;
+                    ai++;
+                    break;
+                case FP:
+                    position[size] = detected[di];
+                    fp++;
+                    di++;
+                    break;
+                default:
+                    position[size] = annotated[ai];
+                    fn++;
+                    ai++;
+                    break;
+            }
+
+            size++;
+        }
+
+        this.type = Arrays.copyOf(type, size);
+        this.position = Arrays.copyOf(position, size);
+        this.error = Arrays.copyOf(error, size);
+        this.detection = Arrays.copyOf(detection, size);
+        this.annotation = Arrays.copyOf(annotation, size);
+        this.tp = tp;
+        this.fp = fp;
+        this.fn = fn;
+    }
+
+    /**
+     * @return the number of events (TP + FP + FN)
+     */
+    public int size()
+    {
+        return type.length;
+    }
+
+    public int getTruePositives()
+    {
+        return tp;
+    }
+
+    public int getFalsePositives()
+    {
+        return fp;
+    }
+
+    public int getFalseNegatives()
+    {
+        return fn;
+    }
+
+    /**
+     * @return the number of errors, false positives and false negatives (as ECGProcess.countErrors)
+     */
+    public int[] getCounts()
+    {
+        return new int[]{fp + fn, fp, fn};
+    }
+
+    /**
+     * @param t TP, FP or FN
+     * @return the positions of the events of type t
+     */
+    public int[] getPositions(byte t)
+    {
+        int[] ret = new int[(t == TP)? tp : (t == FP)? fp : fn];
+        int j = 0;
+
+        for (int k=0; k < type.length; k++)
+            if (type[k] == t)
+                ret[j++] = position[k];
+
+        return ret;
+    }
+
+    /**
+     * @return the timing error (detected - annotated) of every true positive
+     */
+    public int[] getTimingErrors()
+    {
+        int[] ret = new int[tp];
+        int j = 0;
+
+        for (int k=0; k < type.length; k++)
+            if (type[k] == TP)
+                ret[j++] = error[k];
+
+        return ret;
+    }
+}
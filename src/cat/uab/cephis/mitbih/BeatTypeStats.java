@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.io.PrintStream;
+
+/**
+ * Accuracy of a detector broken down by the type of the annotated beats.
+ *
+ * The matches of several records are accumulated, so the statistics of
+ * the whole database are computed in a single pass over the records.
+ * True positives and false negatives are counted by the typecode of their
+ * annotated beat. False positives have no annotated beat, so they (and
+ * the +P) are only counted for all the types together.
+ *
+ * @author dcr
+ */
+public class BeatTypeStats
+{
+    private static final int TYPES = 64;
+
+    private final long[] tp = new long[TYPES];
+    private final long[] fn = new long[TYPES];
+    private long fp = 0;
+
+    /**
+     * Accumulate the match of a record
+     * @param match match of the detected beats with the times of annotations
+     * @param annotations
+     */
+    public synchronized void add(BeatMatch match, AnnotationTable annotations)
+    {
+        for (int k=0; k < match.size(); k++)
+        {
+            switch (match.type[k])
+            {
+                case BeatMatch.TP: tp[annotations.getType(match.annotation[k]) & (TYPES-1)]++; break;
+                case BeatMatch.FN: fn[annotations.getType(match.annotation[k]) & (TYPES-1)]++; break;
+                default: fp++; break;
+            }
+        }
+    }
+
+    public long getTruePositives(int typecode)
+    {
+        return tp[typecode];
+    }
+
+    public long getFalseNegatives(int typecode)
+    {
+        return fn[typecode];
+    }
+
+    /**
+     * @param typecode
+     * @return the sensitivity for the beats of a type
+     */
+    public double getSensitivity(int typecode)
+    {
+        return (double) tp[typecode] / (tp[typecode] + fn[typecode]);
+    }
+
+    public long getFalsePositives()
+    {
+        return fp;
+    }
+
+    /**
+     * Print the statistics of every type found in CSV format
+     * @param out
+     */
+    public void print(PrintStream out)
+    {
+        long ttp = 0;
+        long tfn = 0;
+
+        out.println("Type;Beats;TP;FN;Se%;");
+
+        for (int t=0; t < TYPES; t++)
+        {
+            if (tp[t] + fn[t] == 0)
+                continue;
+
+            out.println(AtrReader.getName(t) + ";" + (tp[t] + fn[t]) + ";" + tp[t] + ";" + fn[t] + ";" + getSensitivity(t) + ";");
+
+            ttp += tp[t];
+            tfn += fn[t];
+        }
+
+        double Se = (double) ttp / (ttp + tfn);
+        double pP = (double) ttp / (ttp + fp);
+
+        out.println("TOTAL;" + (ttp + tfn) + ";" + ttp + ";" + tfn + ";" + Se + ";FP;" + fp + ";+P%;" + pP + ";");
+    }
+}
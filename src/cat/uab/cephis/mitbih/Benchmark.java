@@ -0,0 +1,419 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static cat.uab.cephis.mitbih.ECGProcess.METHOD_JUMP;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_MAX;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_MAX_MINUS_MEAN;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_MEAN;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_MEAN_OR_VALUE;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_RANGE;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_VALUE;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_VALUE_MINUS_MIN;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_VALUE_OUT_OF_RANGE;
+
+/**
+ * Micro benchmarks of the filter and detector hot paths.
+ *
+ * Every benchmark is run during a warm up period and then measured during
+ * a fixed time. The throughput is reported in samples per second and the
+ * allocation rate in bytes per sample (from the thread allocation counter
+ * of the JVM, -1 if not supported). The output is in CSV format.
+ * The multi channel benchmarks count the samples of all the channels, so
+ * they can be compared with the single channel ones. The throughput per
+ * channel and the number of channels that can be processed in real time
+ * (at 360 Hz) are reported too.
+ *
+ * Usage: Benchmark [record] [seconds]
+ *   record   MIT-BIH record in ECGProcess.dir (default 100), skipped if not available
+ *   seconds  measuring time of every benchmark (default 2)
+ *
+ * @author dcr
+ */
+public class Benchmark
+{
+    private interface Task
+    {
+        /**
+         * @return any value derived from the result, so that it cannot be optimized away
+         */
+        double run() throws IOException;
+    }
+
+    private static final String[] FLAG_NAMES = {"VALUE", "MEAN", "RANGE", "MAX", "MAX_MINUS_MEAN",
+        "VALUE_MINUS_MIN", "MEAN_OR_VALUE", "VALUE_OUT_OF_RANGE"};
+    private static final int[] FLAGS = {SELECT_VALUE, SELECT_MEAN, SELECT_RANGE, SELECT_MAX, SELECT_MAX_MINUS_MEAN,
+        SELECT_VALUE_MINUS_MIN, SELECT_MEAN_OR_VALUE, SELECT_VALUE_OUT_OF_RANGE};
+
+    private static long measureNanos = 2000000000L;
+
+    // results of the benchmarks are accumulated here
+    private static volatile double sink;
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            String record = (args.length > 0)? args[0] : "100";
+
+            if (args.length > 1)
+                measureNanos = (long) (Double.parseDouble(args[1]) * 1e9);
+
+            System.out.println("Benchmark;Signal;Samples/s;Bytes/sample;Samples/s/channel;Real-time channels;");
+
+            // 30 minutes at 360 Hz, as a MIT-BIH record
+            benchmarkSignal("square", SignalGenerator.greateSquareSignal(1800, 1, 360, 150, 1024));
+            benchmarkSignal("sin", SignalGenerator.greateSinSignal(1800, 1, 360, 150, 1024));
+            benchmarkChannels(256);
+
+            File file = new File(ECGProcess.dir, record + ".dat");
+
+            if (file.exists())
+            {
+                benchmarkRecord(record, file);
+            }
+            else
+            {
+                System.err.println("Record " + file + " not found, skipping the MIT-BIH benchmarks");
+            }
+
+        } catch (Exception ex) {
+            Logger.getLogger(Benchmark.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private static void benchmarkRecord(final String record, final File file) throws IOException
+    {
+        final DatFile dat = new DatFile(file);
+        final int n = dat.getSamples();
+        final double[] chunk0 = new double[n];
+        final double[] chunk1 = new double[n];
+
+        dat.read(0, chunk0, chunk1, 0, n);
+
+        measure("DatReader.get", record, n, new Task()
+        {
+            @Override
+            public double run() throws IOException
+            {
+                DatReader dr = new DatReader(file, 0);
+
+                try
+                {
+                    return dr.get(chunk0);
+                }
+                finally
+                {
+                    dr.close();
+                }
+            }
+        });
+
+        measure("DatFile.read", record, n, new Task()
+        {
+            @Override
+            public double run()
+            {
+                return dat.read(0, chunk0, chunk1, 0, n);
+            }
+        });
+
+        benchmarkSignal(record, chunk0);
+
+        final short[] samples0 = new short[n];
+
+        dat.read(0, samples0, null, 0, n);
+
+        measure("FixedPoint.detectM5", record, n, new Task()
+        {
+            @Override
+            public double run()
+            {
+                return FixedPoint.detectM5(samples0).length;
+            }
+        });
+
+        measure("FixedPoint.detectM5(DatFile)", record, n, new Task()
+        {
+            @Override
+            public double run()
+            {
+                BeatList beats = new BeatList();
+
+                FixedPoint.detectM5(dat, 0, n, beats);
+
+                return beats.size();
+            }
+        });
+
+        // samples are frames of both leads
+        measure("ECGProcess.detectM9", record, n, new Task()
+        {
+            @Override
+            public double run()
+            {
+                return ECGProcess.detectM9(chunk0, chunk1).length;
+            }
+        });
+    }
+
+    private static void benchmarkSignal(String signal, final double[] chunk0) throws IOException
+    {
+        final int n = chunk0.length;
+
+        for (int k=0; k < FLAGS.length; k++)
+        {
+            final int flags = FLAGS[k];
+
+            measure("minMaxFilter " + FLAG_NAMES[k], signal, n, new Task()
+            {
+                @Override
+                public double run()
+                {
+                    return ECGProcess.minMaxFilter(chunk0, 2, 2, flags)[n-1];
+                }
+            });
+        }
+
+        measure("minMaxFilter VALUE|JUMP", signal, n, new Task()
+        {
+            @Override
+            public double run()
+            {
+                return ECGProcess.minMaxFilter(chunk0, 2, 2, SELECT_VALUE | METHOD_JUMP)[n-1];
+            }
+        });
+
+        final double[] value = new double[n];
+        final double[] range = new double[n];
+
+        measure("minMaxFilter VALUE+RANGE", signal, n, new Task()
+        {
+            @Override
+            public double run()
+            {
+                ECGProcess.minMaxFilter(chunk0, 2, 2, 0, value, null, range);
+
+                return value[n-1] + range[n-1];
+            }
+        });
+
+        // inputs of the later stages, as computed in Pipeline.M5
+        ECGProcess.minMaxFilter(chunk0, 2, 2, 0, value, null, range);
+
+        final double[] squared = ECGProcess.reduceRange(value, range);
+        final double[] t2 = ECGProcess.triangleHeight(squared, 15);
+        final double[] filteredRidges = ECGProcess.mixRidgesValleys(ECGProcess.ridges(t2), ECGProcess.valleys(t2));
+
+        measure("triangleHeight", signal, n, new Task()
+        {
+            @Override
+            public double run()
+            {
+                return ECGProcess.triangleHeight(squared, 15)[n/2];
+            }
+        });
+
+        measure("ridges+valleys", signal, n, new Task()
+        {
+            @Override
+            public double run()
+            {
+                return ECGProcess.ridges(t2)[n/2] + ECGProcess.valleys(t2)[n/2];
+            }
+        });
+
+        measure("detectRidgesAndValleys", signal, n, new Task()
+        {
+            @Override
+            public double run()
+            {
+                return ECGProcess.detectRidgesAndValleys(filteredRidges, null, new double[n], null, 0.3, 1, 90, 700, .85).length;
+            }
+        });
+
+        measure("ECGProcess.detectM5", signal, n, new Task()
+        {
+            @Override
+            public double run()
+            {
+                return ECGProcess.detectM5(chunk0).length;
+            }
+        });
+
+        measure("QRSDetector", signal, n, new Task()
+        {
+            @Override
+            public double run()
+            {
+                BeatList beats = new BeatList();
+                QRSDetector detector = new QRSDetector(beats);
+
+                for (int i=0; i < n; i++)
+                    detector.put(chunk0[i]);
+
+                detector.flush();
+
+                return beats.size();
+            }
+        });
+    }
+
+    /**
+     * Filter many channels at the same time
+     * @param channels
+     * @throws IOException
+     */
+    private static void benchmarkChannels(final int channels) throws IOException
+    {
+        // 10 seconds of a sine with a different phase in every channel
+        double[] sin = SignalGenerator.greateSinSignal(20, 1, 360, 150, 1024);
+        final int frames = 3600;
+        final double[] in = new double[frames * channels];
+        final double[] out = new double[frames * channels];
+
+        for (int t=0; t < frames; t++)
+            for (int c=0; c < channels; c++)
+                in[t * channels + c] = sin[t + c];
+
+        String signal = channels + " channels";
+
+        for (final int flags : new int[] {SELECT_VALUE, SELECT_VALUE | METHOD_JUMP})
+        {
+            String name = (flags == SELECT_VALUE)? "VALUE" : "VALUE|JUMP";
+
+            measure("MaMeMiFilter " + name, signal, frames, channels, new Task()
+            {
+                @Override
+                public double run()
+                {
+                    MaMeMiFilter[] filters = new MaMeMiFilter[channels];
+
+                    for (int c=0; c < channels; c++)
+                        filters[c] = new MaMeMiFilter(2, 2, flags);
+
+                    for (int t=0; t < frames; t++)
+                        for (int c=0; c < channels; c++)
+                            out[t * channels + c] = filters[c].filter(in[t * channels + c]);
+
+                    return out[out.length - 1];
+                }
+            });
+
+            measure("MultiChannelMaMeMiFilter " + name, signal, frames, channels, new Task()
+            {
+                @Override
+                public double run()
+                {
+                    MultiChannelMaMeMiFilter filter = new MultiChannelMaMeMiFilter(channels, 2, 2, flags);
+
+                    filter.filter(in, 0, out, 0, frames);
+
+                    return out[out.length - 1];
+                }
+            });
+        }
+    }
+
+    /**
+     * Run the task during the warm up period, then measure it
+     * @param name
+     * @param signal
+     * @param samples number of samples processed by every run of the task
+     * @param task
+     * @throws IOException
+     */
+    private static void measure(String name, String signal, int samples, Task task) throws IOException
+    {
+        measure(name, signal, samples, 1, task);
+    }
+
+    /**
+     * Run the task during the warm up period, then measure it
+     * @param name
+     * @param signal
+     * @param samples number of samples per channel processed by every run of the task
+     * @param channels
+     * @param task
+     * @throws IOException
+     */
+    private static void measure(String name, String signal, int samples, int channels, Task task) throws IOException
+    {
+        // warm up
+        long end = System.nanoTime() + measureNanos;
+
+        while (System.nanoTime() < end)
+            sink += task.run();
+
+        long runs = 0;
+        long bytes0 = allocatedBytes();
+        long t0 = System.nanoTime();
+        long t1;
+
+        do
+        {
+            sink += task.run();
+            runs++;
+            t1 = System.nanoTime();
+        }
+        while (t1 - t0 < measureNanos);
+
+        long bytes1 = allocatedBytes();
+
+        double total = (double) runs * samples * channels;
+        double throughput = total * 1e9 / (t1 - t0);
+        double bytesPerSample = (bytes0 < 0)? -1 : (bytes1 - bytes0) / total;
+
+        // 360 Hz is the sampling freq
+        double channelThroughput = throughput / channels;
+        double realTimeChannels = throughput / 360;
+
+        System.out.println(name + ";" + signal + ";" + String.format("%.0f", throughput) + ";" + String.format("%.2f", bytesPerSample) + ";"
+                + String.format("%.0f", channelThroughput) + ";" + String.format("%.0f", realTimeChannels) + ";");
+    }
+
+    /**
+     * @return the bytes allocated by the current thread, -1 if not supported
+     */
+    private static long allocatedBytes()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if (bean instanceof com.sun.management.ThreadMXBean)
+        {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled())
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory mapped DAT file in 212 format.
+ *
+ * Both channels are decoded in a single pass directly from the mapped
+ * buffer into primitive arrays supplied by the caller. As frames have a
+ * fixed size (3 bytes), any sample can be read without decoding the
+ * previous ones.
+ *
+ * [ 7 6 5 4 3 2 1 0 ] [ 7 6 4 5  3 2 1 0 ] [ 7 6 4 5 3 2 1 0 ]
+ * [  Channel 0 Low  ] [ Ch 1 H ][ Ch 0 L ] [  Channel 1 Low  ]
+ *
+ * @author dcr
+ */
+public class DatFile
+{
+    public static final int FRAME_SIZE = 3;
+
+    private final ByteBuffer buffer;
+    private final int samples;
+
+    public DatFile(File file) throws IOException
+    {
+        if (!file.exists())
+        {
+            URL url = new URL("http://www.physionet.org/physiobank/database/mitdb/"+file.getName());
+
+            System.out.println("Downloading " + url);
+            Wget.get(url, file);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel())
+        {
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("File too big to be mapped " + file);
+
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            buffer = map;
+            samples = (int) (size / FRAME_SIZE);
+        }
+    }
+
+    /**
+     * @return the number of samples (per channel) of the file
+     */
+    public int getSamples()
+    {
+        return samples;
+    }
+
+    /**
+     * Decode the samples [start, start+len) of both channels
+     * @param start first sample
+     * @param ch0 receives channel 0, can be null
+     * @param ch1 receives channel 1, can be null
+     * @param offset position of the arrays where the first sample is written
+     * @param len number of samples to decode
+     * @return the number of samples decoded, -1 if start is past the end of the file
+     */
+    public int read(int start, short[] ch0, short[] ch1, int offset, int len)
+    {
+        int n = available(start, len);
+
+        int p = start * FRAME_SIZE;
+
+        for (int i=0; i < n; i++, p += FRAME_SIZE)
+        {
+            if (ch0 != null) ch0[offset + i] = channel0(p);
+            if (ch1 != null) ch1[offset + i] = channel1(p);
+        }
+
+        return n;
+    }
+
+    /**
+     * Same as read(int, short[], short[], int, int), widening the samples to int
+     */
+    public int read(int start, int[] ch0, int[] ch1, int offset, int len)
+    {
+        int n = available(start, len);
+
+        int p = start * FRAME_SIZE;
+
+        for (int i=0; i < n; i++, p += FRAME_SIZE)
+        {
+            if (ch0 != null) ch0[offset + i] = channel0(p);
+            if (ch1 != null) ch1[offset + i] = channel1(p);
+        }
+
+        return n;
+    }
+
+    /**
+     * Same as read(int, short[], short[], int, int), widening the samples to double
+     */
+    public int read(int start, double[] ch0, double[] ch1, int offset, int len)
+    {
+        int n = available(start, len);
+
+        int p = start * FRAME_SIZE;
+
+        for (int i=0; i < n; i++, p += FRAME_SIZE)
+        {
+            if (ch0 != null) ch0[offset + i] = channel0(p);
+            if (ch1 != null) ch1[offset + i] = channel1(p);
+        }
+
+        return n;
+    }
+
+    /**
+     * @param p position of the frame in the buffer
+     * @return the sample of channel 0, the 12 bits sign extended
+     */
+    private short channel0(int p)
+    {
+        int b0 = buffer.get(p) & 0xFF;
+        int b1 = buffer.get(p+1);
+
+        return (short) (((b1 << 28) >> 20) | b0);
+    }
+
+    /**
+     * @param p position of the frame in the buffer
+     * @return the sample of channel 1, the 12 bits sign extended
+     */
+    private short channel1(int p)
+    {
+        int b1 = buffer.get(p+1);
+        int b2 = buffer.get(p+2) & 0xFF;
+
+        return (short) ((((b1 & 0xF0) << 24) >> 20) | b2);
+    }
+
+    /**
+     * @param start first sample
+     * @return a source that reads the file in chunks from the sample start
+     */
+    public RecordSource getSource(int start)
+    {
+        return getSource(start, Math.max(samples - start, 0));
+    }
+
+    /**
+     * @param start first sample
+     * @param length number of samples of the source
+     * @return a source that reads the samples [start, start+length) of the file in chunks
+     */
+    public RecordSource getSource(final int start, final int length)
+    {
+        return new RecordSource()
+        {
+            private int position = start;
+
+            @Override
+            public int read(double[] ch0, double[] ch1, int offset, int len)
+            {
+                int n = (position < start + length)? 
+                        DatFile.this.read(position, ch0, ch1, offset, Math.min(len, start + length - position)) : -1;
+
+                if (n > 0)
+                    position += n;
+
+                return n;
+            }
+        };
+    }
+
+    private int available(int start, int len)
+    {
+        if (start < 0)
+            throw new IllegalArgumentException("Negative sample " + start);
+
+        if (start >= samples)
+            return -1;
+
+        return Math.min(len, samples - start);
+    }
+}
@@ -117,9 +117,28 @@ public class DatReader
         return buff.length;
     }
 
+    /**
+     * Skip k samples. 
+     * Frames have a fixed size, so the samples are not decoded
+     * @param k
+     * @throws IOException 
+     */
     void skip(int k) throws IOException {
-        for (int i= 0; i < k; i++)
-            get();
+        long remaining = (long) k * 3;
         
+        while (remaining > 0)
+        {
+            long n = bis.skip(remaining);
+            
+            if (n <= 0)
+                break;
+            
+            remaining -= n;
+        }
+    }
+    
+    public void close() throws IOException
+    {
+        bis.close();
     }
 }
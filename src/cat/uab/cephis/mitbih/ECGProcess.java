@@ -29,6 +29,12 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -61,9 +67,11 @@ public class ECGProcess {
 
         int[] ret3 = posEdgeCheckOtherMaxAdaptive(finald, maxThreshold, 0.4, 90, 700);
                 
-        int[] errors = reportResults(set, ret3, beats);
+        BeatMatch match = matchBeats(ret3, beats);
+        
+        int[] errors = reportResults(set, match);
 
-        int error = findFirstError(ret3, beats, bFP, skipped, debug);
+        int error = findFirstError(match, ret3, beats, bFP, skipped, debug);
         
         if (error != -1 && debug)
         {
@@ -115,9 +123,11 @@ public class ECGProcess {
 
         int[] ret3 = eitherEdgeCheckOtherMaxAdaptive(finald, maxThreshold, minThreshold, 0.4, 1, 90, 700);
                 
-        int[] errors = reportResults(set, ret3, beats);
+        BeatMatch match = matchBeats(ret3, beats);
+        
+        int[] errors = reportResults(set, match);
 
-        int error = findFirstError(ret3, beats, bFP, skipped, debug);
+        int error = findFirstError(match, ret3, beats, bFP, skipped, debug);
         
         if (error != -1 && debug)
         {
@@ -146,8 +156,10 @@ public class ECGProcess {
     {
         int decimation = 1;
 
-        double[] hpData2 = minMaxFilter(chunk0,  2, 2, SELECT_VALUE   );
-        double[] range = minMaxFilter(chunk0,  2, 2, SELECT_RANGE  );
+        double[] hpData2 = new double[chunk0.length];
+        double[] range = new double[chunk0.length];
+        
+        minMaxFilter(chunk0,  2, 2, 0, hpData2, null, range);
   
         double[] squared =  reduceRange(hpData2, range);
         
@@ -174,9 +186,11 @@ public class ECGProcess {
 
 //        int[] ret3 = findMaxInWindow(finald, maxThreshold, 0.5, 90/decimation, 700/decimation);
                 
-        int[] errors = reportResults(set, ret3, beats);
+        BeatMatch match = matchBeats(ret3, beats);
+        
+        int[] errors = reportResults(set, match);
 
-        int error = findFirstError(ret3, beats, bFP, skipped, debug);
+        int error = findFirstError(match, ret3, beats, bFP, skipped, debug);
         
         if (error != -1 && debug)
         {
@@ -227,64 +241,32 @@ public class ECGProcess {
     {
         double[] ret = new double[chunk.length];
         
-        double max = chunk[0];
-        double min = chunk[0];
-        
+        MaMeMiFilter filter = new MaMeMiFilter(delta, deltaFactor, flags);
         
-        double mean;
-        
-        for (int i=0; i < chunk.length; i++)
-        {
-            if (chunk[i] >= max) 
-            {
-                if ((flags & METHOD_JUMP) != 0)
-                    max = chunk[i];
-                else    
-                    max += delta * deltaFactor;
-            }
-            else
-            {
-                max -= delta;
-            }
-            
-            if (chunk[i] <= min)
-            {
-                if ((flags & METHOD_JUMP) != 0)
-                    min = chunk[i];
-                else
-                    min -= delta * deltaFactor;
-            }
-            else
-            {
-                min += delta;
-            }
-
-            mean = (max + min) / 2;
-            
-            double value = chunk[i];
-            
-            if ((flags & SELECT_VALUE) != 0)
-                ret[i] = value - mean;
-            if ((flags & SELECT_MEAN) != 0)
-                ret[i] = mean;
-            if ((flags & SELECT_RANGE)!= 0)
-                ret[i] = (max > min)? max - min :  0;
-            if ((flags & SELECT_MAX)!= 0)
-                ret[i] = max;
-            if ((flags & SELECT_MAX_MINUS_MEAN) != 0)
-                ret[i] = max - mean;
-            if ((flags & SELECT_VALUE_MINUS_MIN) != 0)
-                ret[i] = value - min;
-            if ((flags & SELECT_MEAN_OR_VALUE) != 0)
-                ret[i] = (value>max)? value :  (value < min) ? value : mean;
-            if ((flags & SELECT_VALUE_OUT_OF_RANGE) != 0)
-                ret[i] = (value>=max)? (value - mean) : (value <= min)? (value - mean) : 0;
-        }
+        filter.filter(chunk, 0, ret, 0, chunk.length);
         
         return ret;
     }
+    
+    /**
+     * MaMeMi filter computing the SELECT_VALUE, SELECT_MEAN and SELECT_RANGE 
+     * outputs in a single pass
+     * @param chunk
+     * @param delta
+     * @param deltaFactor
+     * @param flags 0 or METHOD_JUMP
+     * @param value receives the SELECT_VALUE output, can be null
+     * @param mean receives the SELECT_MEAN output, can be null
+     * @param range receives the SELECT_RANGE output, can be null
+     */
+    static void minMaxFilter(double[] chunk, double delta, double deltaFactor, int flags, double[] value, double[] mean, double[] range)
+    {
+        MaMeMiFilter filter = new MaMeMiFilter(delta, deltaFactor, flags);
+        
+        filter.filter(chunk, 0, value, mean, range, 0, chunk.length);
+    }
 
-    private static double[] derivate(double[] in) 
+    static double[] derivate(double[] in) 
     {
         double[] ret = new double[in.length];
         
@@ -298,7 +280,7 @@ public class ECGProcess {
         return ret;
     }
     
-    private static double[] ridges(double[] in) 
+    static double[] ridges(double[] in) 
     {
         double[] ret = new double[in.length];
         
@@ -335,7 +317,7 @@ public class ECGProcess {
     }
     
      
-    private static double[] valleys(double[] in) 
+    static double[] valleys(double[] in) 
     {
                 double[] ret = new double[in.length];
         
@@ -1120,64 +1102,44 @@ public class ECGProcess {
         return ret;
     }
 
-    private static int[] reportResults(String name, int[] detected, int[] annotated) {
-        
-        
-        System.out.println(name + " - Detected Heart Pulses = " + detected.length);
-        System.out.println(name + " - Number of annotations = " +  annotated.length);
-        
-                
-        int fp = 0;
-        int fn = 0;
-        
-        int error;
+    private static int[] reportResults(String name, BeatMatch match) {
         
-        int ta = annotated.length;
-        int td = detected.length;
         
-        int ai=0;
-        int di = 0;
+        System.out.println(name + " - Detected Heart Pulses = " + (match.getTruePositives() + match.getFalsePositives()));
+        System.out.println(name + " - Number of annotations = " +  (match.getTruePositives() + match.getFalseNegatives()));
         
-        while ((ai < ta) && (di < td))
-        {
-            error = Math.abs(detected[di] - annotated[ai]);
-
-            if (error > tolaratedError)
-            {
-                if (detected[di] > annotated[ai])
-                {
-                    // missed an annotated beat, meaning that there was an annotated beat
-                    // that was not present in the detected ones
-                    fn++;
-                    ai++;
-                }
-                else
-                {
-                    // missed a detected beat
-                    fp++;
-                    di++;
-                }
-            }                    
-            else
-            {
-                ai++;
-                di++;
-            }
-        }
-
-        fn += ta -ai;
-        fp += td - di;
+        int[] errors = match.getCounts();
         
-        int tot = fp + fn;
+        System.out.println("ERRORS: " + errors[0] + " FP:" + errors[1] + " FN:" + errors[2]);
         
-        System.out.println("ERRORS: " + tot + " FP:" + fp + " FN:" + fn);
+        return errors;
+    }
+    
+    /**
+     * Match the detected beats with the annotated ones
+     * @param detected
+     * @param annotated
+     * @return the number of errors, false positives and false negatives
+     */
+    static int[] countErrors(int[] detected, int[] annotated) {
         
+        return matchBeats(detected, annotated).getCounts();
+    }
+    
+    /**
+     * Match the detected beats with the annotated ones
+     * @param detected
+     * @param annotated
+     * @return every true positive, false positive and false negative
+     */
+    static BeatMatch matchBeats(int[] detected, int[] annotated) {
         
-        return new int[]{ tot, fp, fn};
+        return new BeatMatch(detected, annotated, tolaratedError);
     }
     
     /**
      * 
+     * @param match
      * @param detected
      * @param annotated
      * @param bFP first positive
@@ -1185,41 +1147,30 @@ public class ECGProcess {
      * @param debug
      * @return 
      */
-    private static int findFirstError(int[] detected, int[] annotated, boolean bFP, int skipped, boolean debug)
+    private static int findFirstError(BeatMatch match, int[] detected, int[] annotated, boolean bFP, int skipped, boolean debug)
     {        
-        int id = 0;
-        int ia = 0;
-        
-        while (id < detected.length && ia < annotated.length)
+        for (int k=0; k < match.size(); k++)
         {
-            int error = Math.abs(detected[id] - annotated[ia]);
+            int id = match.detection[k];
+            int ia = match.annotation[k];
             
-            if (error > tolaratedError)
+            // the errors after the end of one of the arrays are not reported
+            if (id == detected.length || ia == annotated.length)
+                break;
+            
+            if (match.type[k] == BeatMatch.FP)
             {
-                if (detected[id] < annotated[ia])
-                {
-                    if (debug) System.err.println("FALSE Positivie in " + (detected[id]+skipped)  + " (next annotated in " +  (annotated[ia]+skipped) + ")");
-                    
-                    if (bFP)
-                        return detected[id];
-                    else
-                        id++;
-                }
-                else
-                {
-                    if (debug) System.err.println("FALSE Negative in " + (annotated[ia]+skipped) + " (next detected in " + (detected[id]+skipped) + ")");
+                if (debug) System.err.println("FALSE Positivie in " + (detected[id]+skipped)  + " (next annotated in " +  (annotated[ia]+skipped) + ")");
 
-                    if (!bFP)
-                        return annotated[ia];
-                    else
-                        ia++;
-                    //return beats[i];
-                }
+                if (bFP)
+                    return detected[id];
             }
-            else
+            else if (match.type[k] == BeatMatch.FN)
             {
-                id++;
-                ia++;
+                if (debug) System.err.println("FALSE Negative in " + (annotated[ia]+skipped) + " (next detected in " + (detected[id]+skipped) + ")");
+
+                if (!bFP)
+                    return annotated[ia];
             }
         }
         
@@ -1233,172 +1184,109 @@ public class ECGProcess {
     }
 
     /**
-     * 
-     * @param set
-     * @param chunk
-     * @param read
-     * @param beats
-     * @return number of errors
+     * Method #5 computed sample by sample (see QRSDetector)
+     * @param chunk0
+     * @return the detected beats
      */
-    private static int[] processM5(String set, double[] chunk0, double[] chunk1, int[] beats, boolean debug, boolean bFP, int skipped) 
+    static int[] detectM5(double[] chunk0)
     {
-        int decimation = 1;
-
-        
-        
-//       double[] lp = chunk0; // lp(chunk0, 5);
-       // double[] derivated = notch(chunk0, 6*2);
-        double[] derivated = null;
-        
-        double[] hpData2 = minMaxFilter(chunk0,  2, 2, SELECT_VALUE   );
-        double[] range2 = minMaxFilter(chunk0,  2, 2, SELECT_RANGE   );
-        
-  
-        double[] mi = hpData2;
+        return detectM5(chunk0, null);
+    }
+    
+    /**
+     * Method #5 computed sample by sample (see QRSDetector)
+     * @param chunk0
+     * @param trace if not null, receives the intermediate signals
+     * @return the detected beats
+     */
+    static int[] detectM5(double[] chunk0, QRSDetector.Trace trace)
+    {
+        BeatList beats = new BeatList();
+        QRSDetector detector = new QRSDetector(beats);
         
-         
+        if (trace != null)
+            detector.setTrace(trace);
         
-         
-        double[] squared =  reduceRange(hpData2, range2);
+        detector.put(chunk0, 0, chunk0.length);
+        detector.flush();
         
-
+        return beats.toArray();
+    }
+    
+    /**
+     * Method #5 over a record of any length. The channel 0 is read in chunks 
+     * and streamed through QRSDetector, the memory used does not depend on 
+     * the length of the record.
+     * @param source
+     * @param listener receives the detected beats
+     * @throws IOException 
+     */
+    static void detectM5(RecordSource source, RidgeThresholdDetector.BeatListener listener) throws IOException
+    {
+        double[] chunk0 = new double[8192];
+        QRSDetector detector = new QRSDetector(listener);
         
-        double[] maxThreshold = new double[chunk0.length];
-        double[] minThreshold = new double[chunk0.length];
-
-//        double[] finald = squared; // limitRange(scale(squared, 3), 100, -100); // absolute(integrated); // limitRange(squared, 200, -200); // sum(sum(derivated, sub(hpData2, range)), hpData2);
-
-//        lp = hpData2;
+        int n;
         
-        double[] t2 = triangleHeight(squared, 15); // triangleDerivateHeight(derivated, 7); // integrateOverCount(trian); // positive(sub(spike, sub));
-
+        while ((n = source.read(chunk0, null, 0, chunk0.length)) > 0)
+            detector.put(chunk0, 0, n);
         
-         
-         double[] zeroPass = null; // zeroPass(derivated);
-         
-//         t2 = nonZero(t2);
-         
-         double[] ridges = ridges(t2);
-         double[] valleys = valleys(t2);
-         
-         double[] density = null; // integrate(absolute(positive(derivate(absolute(squared)))), 15); // integrate(sum(detectNonZero(ridges), detectNonZero(valleys)), 15);
-         double[] nonZeroMean = null; // integrate(absolute(derivate(lp)), 50);
-         
-       //double[] finald = filterPulses(ridges, valleys);//   div(filterPulses(ridges, valleys), density); // sum(pulses, derivate); // reduceRange(t2, scale(zeroPass, 0.3)); // lp2; //  ( integrate(lp, 5)); // square(t2); // reduceRange(t2, range);
-       
-//       finald = sum(finald, squared);
-         
-         double[] filteredRidges = mixRidgesValleys(ridges, valleys);
-       
-         int[] ret3 = detectRidgesAndValleys(filteredRidges, valleys, maxThreshold, minThreshold, 0.3, 1, 90, 700, .85);
-         
-//        int[] ret3 = posEdgeAdaptive(finald, maxThreshold, 0.2, 90, 700);
-//        int[] ret3 = eitherEdgeCheckOtherMaxAdaptive(finald, maxThreshold, minThreshold, 0.3, 1, 90, 700);
-//        int[] ret3 = pulseEdgeAdaptive(finald, maxThreshold, minThreshold, 
-//                .4, .4,
-//                22, .6,
-//                90/decimation,      // min gap after pulse 
-//                700/decimation,     // max gap after pulse
-//                90/decimation,      // max positive pulse
-//                60/decimation, false);
-
-//        int[] ret3 = findMaxInWindow(finald, maxThreshold, 0.5, 90/decimation, 700/decimation);
-                
-        int[] errors = reportResults(set, ret3, beats);
-
-        int error = findFirstError(ret3, beats, bFP, skipped, debug);
+        detector.flush();
+    }
+    
+    /**
+     * Opens the DAT file of a record in dir. The samples are not copied into 
+     * arrays, so records of any length can be evaluated.
+     * @param set
+     * @param skip number of samples skipped from the start of the record
+     * @return the samples of the record from skip, without the last one (as 
+     * readRecord)
+     * @throws IOException 
+     */
+    static RecordSource openRecord(String set, int skip) throws IOException
+    {
+        DatFile dat = new DatFile(new File(dir, set + ".dat"));
         
+        return dat.getSource(skip, Math.max(dat.getSamples() - skip - 1, 0));
+    }
+    
+    /**
+     * Method #9 computed sample by sample (see MultiLeadQRSDetector)
+     * @param chunk0
+     * @param chunk1
+     * @return the detected beats
+     */
+    static int[] detectM9(double[] chunk0, double[] chunk1)
+    {
+        BeatList beats = new BeatList();
+        MultiLeadQRSDetector detector = new MultiLeadQRSDetector(beats);
         
+        detector.put(chunk0, chunk1, 0, Math.min(chunk0.length, chunk1.length));
+        detector.flush();
         
-        if (debug)
-        //if (error != -1 && debug)
-        {
-            int focus = error - 50;
-            if (focus < 0)
-                focus = 0;
-         
-            PlotDiscrete1D pdis = new PlotDiscrete1D("Ridges");
-        
-            
-        pdis.setData(ridges);
-        pdis.setData2(valleys);
-//        pdis.setAnnotation(beats);
-        pdis.setVisible(true);
-        pdis.setZoom(300);
-        pdis.setOffset(focus);
-        pdis.drawValleys = false;
-//        pdis.setDetected(ret3);
-//        pdis.setData3(maxThreshold);
-        pdis.setData3(t2);
-
-        pdis = new PlotDiscrete1D("Valleys");
-        
-        pdis.setData(ridges);
-        pdis.setData2(valleys);
-//        pdis.setAnnotation(beats);
-        pdis.setVisible(true);
-        pdis.setZoom(300);
-        pdis.setOffset(focus);
-        pdis.drawData = false;
-        
-        
-        
-        pdis = new PlotDiscrete1D("Filtered Ridges");
-        
-        pdis.setData(filteredRidges);
-        pdis.setData2(valleys);
-        pdis.setAnnotation(beats);
-        pdis.setVisible(true);
-        pdis.setZoom(300);
-        pdis.setOffset(focus);
-        pdis.drawData = true;
-        pdis.drawValleys = false;
-        //pdis.setData3(t2);
-        pdis.setData3(maxThreshold);
-	pdis.setDetected(ret3);
-	
-//        pdis.setDetected(ret3);
-//        pdis.setData3(maxThreshold);
-
-            Plot1D[] plots = plotSignals(set, new double[][]{
-   //             finald,
-                ridges,
-                valleys,
-                nonZeroMean,
-                density,
-                 t2, 
-                derivated,
-                squared,
-                range2,
-                hpData2, 
-                
-                chunk0},
-                      new String[]{
-     //                     "Final",
-                          "ridges",
-                          "valleys",
-                          " Integrated absolute derivate 45",
-                          " Integrated absolute derivate 15",
-                          "t2", 
-                          "derivated",
-                          "Squared",
-                          "Range",
-                          "HP",
-                          
-                          "Source"  }, 
-                      beats, 
-                      focus, skipped);
-              
-            plots[0].setData2(maxThreshold);          
-            plots[0].setData3(minThreshold);  
-            
-            
-        }
+        return beats.toArray();
+    }
+    
+    /**
+     * Method #9 over a record of any length. Both channels are read in chunks 
+     * and streamed through MultiLeadQRSDetector.
+     * @param source
+     * @param listener receives the detected beats
+     * @throws IOException 
+     */
+    static void detectM9(RecordSource source, RidgeThresholdDetector.BeatListener listener) throws IOException
+    {
+        double[] chunk0 = new double[8192];
+        double[] chunk1 = new double[8192];
+        MultiLeadQRSDetector detector = new MultiLeadQRSDetector(listener);
         
-        return  errors;
-        }
+        int n;
         
+        while ((n = source.read(chunk0, chunk1, 0, chunk0.length)) > 0)
+            detector.put(chunk0, chunk1, 0, n);
         
+        detector.flush();
+    }
 
 
     /**
@@ -1438,9 +1326,11 @@ public class ECGProcess {
                 60/decimation, false);
 
                 
-        int[] errors = reportResults(set, ret3, beats);
+        BeatMatch match = matchBeats(ret3, beats);
+        
+        int[] errors = reportResults(set, match);
 
-        int error = findFirstError(ret3, beats, bFP, skipped, debug);
+        int error = findFirstError(match, ret3, beats, bFP, skipped, debug);
         
         if (error != -1 && debug)
         {
@@ -1519,9 +1409,11 @@ public class ECGProcess {
 
 //        int[] ret3 = findMaxInWindow(finald, maxThreshold, 0.5, 90/decimation, 700/decimation);
                 
-        int[] errors = reportResults(set, ret3, beats);
+        BeatMatch match = matchBeats(ret3, beats);
+        
+        int[] errors = reportResults(set, match);
 
-        int error = findFirstError(ret3, beats, bFP, skipped, debug);
+        int error = findFirstError(match, ret3, beats, bFP, skipped, debug);
         
         if (error != -1 && debug)
         {
@@ -1655,9 +1547,11 @@ public class ECGProcess {
                 60/decimation, false);
 
                 
-        int[] errors = reportResults(set, ret3, beats);
+        BeatMatch match = matchBeats(ret3, beats);
+        
+        int[] errors = reportResults(set, match);
 
-        int error = findFirstError(ret3, beats, bFP, skipped, debug);
+        int error = findFirstError(match, ret3, beats, bFP, skipped, debug);
         
         if (error != -1 && debug)
         {
@@ -1795,9 +1689,11 @@ public class ECGProcess {
 //                100/decimation, false);
 
                 
-        int[] errors = reportResults(set, ret3, beats);
+        BeatMatch match = matchBeats(ret3, beats);
+        
+        int[] errors = reportResults(set, match);
 
-        int error = findFirstError(ret3, beats, bFP, skipped, debug);
+        int error = findFirstError(match, ret3, beats, bFP, skipped, debug);
         
         if (error != -1 && debug)
         {
@@ -1907,33 +1803,19 @@ public class ECGProcess {
 
     public static void testSingle(int v, int skip, boolean bFP, int method) throws MalformedURLException, IOException {
                    
-        
+        switch (method)
+        {
+            case 5: testSingle(v, skip, bFP, Pipeline.parse(Pipeline.M5), true); return;
+            case 9: testSingle(v, skip, bFP, getDetector(9), true); return;
+        }
         
         String set = "" + v;
             
-            DatReader dr0 = new DatReader(new File(dir, set + ".dat"), 0);
-            DatReader dr1 = new DatReader(new File(dir, set + ".dat"), 1);
-            AtrReader ar = new AtrReader(new File(dir, set + ".atr"), 0);
-            //dr.skip(1195);
-            
-            double[] chunk0 = new double[1000000];
-            double[] chunk1 = new double[1000000];
-//              double[] chunk = new double[1000];
-            
-            dr0.skip(skip);
-            dr1.skip(skip);
-            
-            int read0  = dr0.get(chunk0);
-            int read1 = dr1.get(chunk1);
-            int[] beats = ar.getBeatsAfter(skip);
+            double[][] chunks = readRecord(set, skip);
+            double[] nc0 = chunks[0];
+            double[] nc1 = chunks[1];
             
-            
-            
-            double[] nc0 = new double[read0];
-            double[] nc1 = new double[read1];
-            
-            System.arraycopy(chunk0, 0, nc0, 0, read0);
-            System.arraycopy(chunk1, 0, nc1, 0, read1);
+            int[] beats = RecordCache.shared().getBeatsAfter(set, skip);
             
             int[] errors;
             
@@ -1943,7 +1825,6 @@ public class ECGProcess {
                 case 2: errors = processM2(set, nc0, nc1, beats, true, bFP, skip); break;
                 case 3: errors = processM3(set, nc0, nc1, beats, true, bFP, skip); break;
                 case 4: errors = processM4(set, nc0, nc1, beats, true, bFP, skip); break;
-                case 5: errors = processM5(set, nc0, nc1, beats, true, bFP, skip); break;
                 case 8: errors = processM8(set, nc0, nc1, beats, true, bFP, skip); break;
                 default:
                     throw new RuntimeException("Unknown method " + method);
@@ -1955,53 +1836,394 @@ public class ECGProcess {
 
     }
     
+    /**
+     * Evaluate a detector on a single record, without plots
+     * @param v record
+     * @param skip number of samples skipped from the start of the record
+     * @param bFP report the first false positive (false negative if false)
+     * @param detector e.g. a Pipeline
+     * @throws IOException 
+     */
+    public static void testSingle(int v, int skip, boolean bFP, BeatDetector detector) throws IOException
+    {
+        testSingle(v, skip, bFP, detector, false);
+    }
+    
+    /**
+     * Evaluate a detector on a single record
+     * @param v record
+     * @param skip number of samples skipped from the start of the record
+     * @param bFP report the first false positive (false negative if false)
+     * @param detector e.g. a Pipeline
+     * @param debug plot the leads and the signals traced by the detector 
+     * around the first error
+     * @throws IOException 
+     */
+    public static void testSingle(int v, int skip, boolean bFP, BeatDetector detector, boolean debug) throws IOException
+    {
+        String set = "" + v;
+        
+        int[] beats = RecordCache.shared().getBeatsAfter(set, skip);
+        
+        if (!debug)
+        {
+            int[] detected = detect(detector, set, skip);
+
+            BeatMatch match = matchBeats(detected, beats);
+
+            reportResults(set, match);
+            findFirstError(match, detected, beats, bFP, skip, true);
+            return;
+        }
+        
+        double[][] chunks = readRecord(set, skip);
+        BeatDetector.Trace trace = new BeatDetector.Trace();
+        
+        int[] detected = detector.detect(chunks[0], chunks[1], trace);
+        
+        BeatMatch match = matchBeats(detected, beats);
+        
+        reportResults(set, match);
+        int error = findFirstError(match, detected, beats, bFP, skip, true);
+        
+        int focus = error - 50;
+        if (focus < 0)
+            focus = 0;
+        
+        plotTrace(set, chunks, trace, beats, detected, focus, skip);
+    }
+    
+    /**
+     * Plot the leads of a record and the signals traced by a detector, the 
+     * last traced signal (the input of the threshold) is also plotted as 
+     * discrete values with the threshold and the detected beats
+     * @param set
+     * @param chunks both leads
+     * @param trace
+     * @param beats annotated beats
+     * @param detected
+     * @param focus
+     * @param skipped 
+     */
+    private static void plotTrace(String set, double[][] chunks, BeatDetector.Trace trace, int[] beats, int[] detected, int focus, int skipped)
+    {
+        int n = trace.signals.size();
+        
+        double[][] data = new double[n + 2][];
+        String[] titles = new String[n + 2];
+        
+        // the last stage on top, the leads at the bottom
+        for (int i=0; i < n; i++)
+        {
+            data[i] = trace.signals.get(n - 1 - i);
+            titles[i] = trace.names.get(n - 1 - i);
+        }
+        
+        data[n] = chunks[1];
+        titles[n] = "Lead 1";
+        data[n + 1] = chunks[0];
+        titles[n + 1] = "Lead 0";
+        
+        if (n > 0 && trace.threshold != null)
+        {
+            PlotDiscrete1D pdis = new PlotDiscrete1D(titles[0]);
+
+            pdis.setData(data[0]);
+            pdis.setAnnotation(beats);
+            pdis.setVisible(true);
+            pdis.setZoom(300);
+            pdis.setOffset(focus);
+            pdis.drawData = true;
+            pdis.drawValleys = false;
+            pdis.setData3(trace.threshold);
+            pdis.setDetected(detected);
+        }
+        
+        Plot1D[] plots = plotSignals(set, data, titles, beats, focus, skipped);
+        
+        if (n > 0 && trace.threshold != null)
+            plots[0].setData2(trace.threshold);
+    }
+    
+    /**
+     * Read both channels of a record.
+     * The record is decoded once and kept in the RecordCache
+     * @param set
+     * @param skip number of samples skipped from the start of the record
+     * @return the samples of channel 0 and channel 1
+     * @throws IOException 
+     */
+    static double[][] readRecord(String set, int skip) throws IOException
+    {
+        RecordCache.Samples samples = RecordCache.shared().getSamples(set);
+        
+        // DatReader.get(double[]) never returned the last sample of the file.
+        // It is also dropped here to reproduce the results of previous versions
+        int len = Math.max(samples.ch0.length - skip - 1, 0);
+        
+        double[] chunk0 = new double[len];
+        double[] chunk1 = new double[len];
+        
+        for (int i=0; i < len; i++)
+        {
+            chunk0[i] = samples.ch0[skip + i];
+            chunk1[i] = samples.ch1[skip + i];
+        }
+        
+        return new double[][]{chunk0, chunk1};
+    }
+    
     public static void testChenSubset() throws IOException
     {
-        testSet(new int[]{100, 101, 103, 109, 113, 114, 115, 116, 117, 119, 122, 123, 124 , 201, 202, 205, 209, 213,219,220,  221, 222, 230, 231, 234});
+        testChenSubset(1);
     }
     
-    public static void testWholeSet() throws IOException {
-        testSet(new int[]{100, 101, 102, 103, 104, 105, 106, 107, 108 , 109,
+    /**
+     * @param threads number of records evaluated in parallel
+     * @throws IOException 
+     */
+    public static void testChenSubset(int threads) throws IOException
+    {
+        testSet(getDetector(5), threads, new int[]{100, 101, 103, 109, 113, 114, 115, 116, 117, 119, 122, 123, 124 , 201, 202, 205, 209, 213,219,220,  221, 222, 230, 231, 234});
+    }
+    
+    /**
+     * The 48 records of the MIT-BIH arrhythmia database
+     */
+    public static final int[] WHOLE_SET = {100, 101, 102, 103, 104, 105, 106, 107, 108 , 109,
             111, 112, 113, 114, 115, 116, 117, 118, 119, 
             121, 122, 123, 124 , 
             200, 201, 202, 203, 205, 207, 208, 209, 
             210, 212, 213, 214, 215, 217, 219,
             220, 221, 222, 223, 228, 
-            230, 231, 232, 233, 234});
+            230, 231, 232, 233, 234};
+    
+    public static void testWholeSet() throws IOException {
+        testWholeSet(1);
     }
-    private static void testSet(int[] sets) throws MalformedURLException , IOException
+    
+    /**
+     * @param threads number of records evaluated in parallel
+     * @throws IOException 
+     */
+    public static void testWholeSet(int threads) throws IOException {
+        testWholeSet(threads, 5);
+    }
+    
+    /**
+     * @param threads number of records evaluated in parallel
+     * @param method 5 (single lead) or 9 (both leads)
+     * @throws IOException 
+     */
+    public static void testWholeSet(int threads, int method) throws IOException {
+        testWholeSet(threads, getDetector(method));
+    }
+    
+    /**
+     * @param threads number of records evaluated in parallel
+     * @param detector e.g. a Pipeline
+     * @throws IOException 
+     */
+    public static void testWholeSet(int threads, BeatDetector detector) throws IOException {
+        testSet(detector, threads, WHOLE_SET);
+    }
+    /**
+     * Check that the real-time detector (QRSDetector) finds the same beats 
+     * as the batch implementation of method #5. The batch side uses the 
+     * original threshold tracker (detectRidgesAndValleysReference), so 
+     * RidgeThresholdDetector is checked too
+     * @throws IOException 
+     */
+    public static void testRealTimeSet() throws IOException
     {
-        int[][] results = new int[sets.length][];
-        int[] totBeats = new int[sets.length];
+        int[] sets = WHOLE_SET;
+        
+        int different = 0;
+        
+        System.out.println("Set;Batch;RealTime;Equal;");
         
         for (int i=0; i < sets.length; i++)
         {
-                    String set = "" + sets[i];
+            String set = "" + sets[i];
+            
+            double[] nc0 = readRecord(set, 0)[0];
             
-            DatReader dr0 = new DatReader(new File(dir, set + ".dat"), 0);
-            DatReader dr1 = new DatReader(new File(dir, set + ".dat"), 1);
-            AtrReader ar = new AtrReader(new File(dir, set + ".atr"), 0);
-            //dr.skip(1195);
+            double[] hpData2 = new double[nc0.length];
+            double[] range2 = new double[nc0.length];
             
-            double[] chunk0 = new double[1000000];
-            double[] chunk1 = new double[1000000];
-//              double[] chunk = new double[1000];
+            minMaxFilter(nc0,  2, 2, 0, hpData2, null, range2);
+            double[] t2 = triangleHeight(reduceRange(hpData2, range2), 15);
+            double[] filteredRidges = mixRidgesValleys(ridges(t2), valleys(t2));
             
-            int read0  = dr0.get(chunk0);
-            int read1  = dr1.get(chunk1);
-            int[] beats = ar.getBeats();
+            int[] batch = detectRidgesAndValleysReference(filteredRidges, null, new double[nc0.length], null, 0.3, 1, 90, 700, .85);
+            int[] realTime = detectM5(nc0);
             
-             double[] nc0 = new double[read0];
-            double[] nc1 = new double[read1];
+            boolean equal = Arrays.equals(batch, realTime);
             
-            System.arraycopy(chunk0, 0, nc0, 0, read0);
-            System.arraycopy(chunk1, 0, nc1, 0, read1);
+            if (!equal)
+                different++;
             
-            results[i] = processM5(set, nc0, nc1, beats, false, true, 0);
-            //results[i] = processM5(set, chunk, read, beats);
-            totBeats[i] = beats.length;
+            System.out.println("" + sets[i] + ";" + batch.length + ";" + realTime.length + ";" + equal + ";");
         }
         
+        System.out.println("Different sets: " + different);
+    }
+    
+    private static void testSet(int[] sets) throws MalformedURLException , IOException
+    {
+        testSet(getDetector(5), 1, sets);
+    }
+    
+    /**
+     * @param method 5 (single lead) or 9 (both leads)
+     * @return the detector of the method
+     */
+    public static BeatDetector getDetector(int method)
+    {
+        switch (method)
+        {
+            case 5: 
+                return new BeatDetector()
+                {
+                    @Override
+                    public int[] detect(double[] chunk0, double[] chunk1)
+                    {
+                        return detectM5(chunk0);
+                    }
+
+                    @Override
+                    public int[] detect(RecordSource source) throws IOException
+                    {
+                        BeatList beats = new BeatList();
+                        
+                        detectM5(source, beats);
+                        
+                        return beats.toArray();
+                    }
+                };
+            case 9: 
+                return new BeatDetector()
+                {
+                    @Override
+                    public int[] detect(double[] chunk0, double[] chunk1)
+                    {
+                        return detectM9(chunk0, chunk1);
+                    }
+
+                    @Override
+                    public int[] detect(RecordSource source) throws IOException
+                    {
+                        BeatList beats = new BeatList();
+                        
+                        detectM9(source, beats);
+                        
+                        return beats.toArray();
+                    }
+                };
+            default:
+                throw new RuntimeException("Unknown method " + method);
+        }
+    }
+    
+    /**
+     * Detect the beats of a record streamed from its DAT file (see 
+     * BeatDetector.detect(RecordSource))
+     * @param detector
+     * @param set
+     * @param skip number of samples skipped from the start of the record
+     * @return the detected beats
+     * @throws IOException 
+     */
+    private static int[] detect(BeatDetector detector, String set, int skip) throws IOException
+    {
+        return detector.detect(openRecord(set, skip));
+    }
+    
+    /**
+     * Evaluate a detector over several records.
+     * 
+     * Records are independent, so the detection is done in parallel. The 
+     * annotations are read and the results reported in the order of the 
+     * sets, so the output is the same for any number of threads.
+     * 
+     * @param detector
+     * @param threads number of records evaluated in parallel
+     * @param sets
+     * @throws IOException 
+     */
+    private static void testSet(final BeatDetector detector, int threads, int[] sets) throws IOException
+    {
+        int[][] results = new int[sets.length][];
+        int[] totBeats = new int[sets.length];
+        final long[] times = new long[sets.length];
+        BeatTypeStats stats = new BeatTypeStats();
+        
+        long t0 = System.nanoTime();
+        
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        
+        try
+        {
+            List<Future<int[]>> detections = new ArrayList<Future<int[]>>();
+            
+            for (int i=0; i < sets.length; i++)
+            {
+                final String set = "" + sets[i];
+                final int index = i;
+                
+                detections.add(executor.submit(new Callable<int[]>()
+                {
+                    @Override
+                    public int[] call() throws IOException
+                    {
+                        long start = System.nanoTime();
+                        
+                        int[] detected = detect(detector, set, 0);
+                        
+                        times[index] = (System.nanoTime() - start) / 1000000;
+                        
+                        return detected;
+                    }
+                }));
+            }
+            
+            for (int i=0; i < sets.length; i++)
+            {
+                String set = "" + sets[i];
+                
+                int[] beats = RecordCache.shared().getBeats(set);
+                int[] detected = detections.get(i).get();
+                
+                // as testSingle without debug
+                BeatMatch match = matchBeats(detected, beats);
+                
+                results[i] = reportResults(set, match);
+                findFirstError(match, detected, beats, true, 0, false);
+                
+                stats.add(match, RecordCache.shared().getAnnotations(set));
+                
+                totBeats[i] = beats.length;
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            
+            throw new RuntimeException(ex.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        
+        long wallTime = (System.nanoTime() - t0) / 1000000;
+        
         System.err.println("");
         System.out.println("");
         
@@ -2029,6 +2251,18 @@ public class ECGProcess {
         double DER = (tfn + tfp) / TQRS;
         System.out.println("TOTAL; " + TQRS + ";" + tfp + ";" + tfn + ";");
         System.out.println(";Se%;" + (Se) + "+P%;" + (pP) + ";DER%; " + (DER));
+        
+        // sensitivity by beat type
+        System.out.println("");
+        stats.print(System.out);
+        
+        // timings go to stderr, so the CSV output does not depend on them
+        System.err.println("Set;Time (ms);");
+        
+        for (int i=0; i < sets.length; i++)
+            System.err.println("" + sets[i] + ";" + times[i] + ";");
+        
+        System.err.println("Threads: " + threads + " Wall time (ms): " + wallTime);
     }
 
     /**
@@ -2273,7 +2507,7 @@ public class ECGProcess {
      * @param b
      * @return 
      */
-    private static double[] reduceRange(double[] a, double[] b) 
+    static double[] reduceRange(double[] a, double[] b) 
     {
         int n = a.length;
         
@@ -2365,7 +2599,7 @@ public class ECGProcess {
         return ret;
     }
 
-    private static double[] absolute(double[] a) {
+    static double[] absolute(double[] a) {
         int n = a.length;
         
         double[] ret = new double[n];
@@ -2378,7 +2612,7 @@ public class ECGProcess {
         return ret;
     }
     
-    private static double[] square(double[] a) {
+    static double[] square(double[] a) {
         int n = a.length;
         
         double[] ret = new double[n];
@@ -2391,7 +2625,7 @@ public class ECGProcess {
         return ret;
     }
     
-    private static double[] positive(double[] a) {
+    static double[] positive(double[] a) {
         int n = a.length;
         
         double[] ret = new double[n];
@@ -2514,125 +2748,40 @@ public class ECGProcess {
     private static double[] hpmin(double[] in, int f) 
     {
         double[] ret = new double[in.length];
+        double[] min = SlidingWindow.min(in, -f, f);
         
         for (int i=0; i < in.length; i++)
         {
-            double mean = 0;
-            double min = in[0];
-            int count = 0;
-            
-            for (int j=-f; j <=f; j++)
-            {
-                int k = i+j;
-                
-                if (k >=0 && k < in.length)
-                {
-                    mean += in[k];
-                    count++;
-
-                    if (in[k] < min)
-                        min = in[k];
-                }
-                
-            }
-            
-            double v = mean / count;
-            
-            //ret[i] = in[i] - v;
-            ret[i] = in[i] - min;
+            // the minimum starts at in[0]
+            ret[i] = in[i] - Math.min(in[0], min[i]);
         }
         
         return ret;
     }
     
-    private static double[] hp(double[] in, int f) 
+    static double[] hp(double[] in, int f) 
     {
         double[] ret = new double[in.length];
+        double[] mean = SlidingWindow.mean(in, f);
         
         for (int i=0; i < in.length; i++)
-        {
-            double mean = 0;
-            int count = 0;
-            
-            for (int j=-f; j <=f; j++)
-            {
-                int k = i+j;
-                
-                if (k >=0 && k < in.length)
-                {
-                    mean += in[k];
-                    count++;
-                }
-                
-            }
-            
-            double v = mean / count;
-            
-            ret[i] = in[i] - v;
-            
-        }
+            ret[i] = in[i] - mean[i];
         
         return ret;
     }
      
-    private static double[] lp(double[] in, int f) 
+    static double[] lp(double[] in, int f) 
     {
-        double[] ret = new double[in.length];
-        
-        for (int i=0; i < in.length; i++)
-        {
-            double mean = 0;
-            int count = 0;
-            
-            for (int j=-f; j <=f; j++)
-            {
-                int k = i+j;
-                
-                if (k >=0 && k < in.length)
-                {
-                    mean += in[k];
-                    count++;
-                }
-            }
-            
-            double v = mean / count;
-            
-            ret[i] = v;
-        }
-        
-        return ret;
+        return SlidingWindow.mean(in, f);
     }
     
     
-    private static double[] median(double[] in, int f) 
+    static double[] median(double[] in, int f) 
     {
-        double[] ret = new double[in.length];
-        double[] buf = new double[f*2+1];
-        
-        for (int i=0; i < in.length; i++)
-        {
-            int count = 0;
-            
-            for (int j=-f; j <=f; j++)
-            {
-                int k = i+j;
-                
-                if (k >=0 && k < in.length)
-                {
-                    buf[count] = in[k];
-                    count++;
-                }
-            }
-            
-            Arrays.sort(buf, 0, count-1);
-            
-            ret[i] = buf[count/2];
-        }
-        
-        return ret;
+        return SlidingWindow.median(in, f);
     }
     
-    private static double[] triangleHeight(double[] in, int f) 
+    static double[] triangleHeight(double[] in, int f) 
     {
         double[] ret = new double[in.length];
         double[] buf = new double[f*2+1];
@@ -2739,31 +2888,10 @@ public class ECGProcess {
     }
     
     
-    private static double[] integrate(double[] in, int f) 
+    static double[] integrate(double[] in, int f) 
     {
-        double[] ret = new double[in.length];
-        
-        for (int i=0; i < in.length; i++)
-        {
-            double sum = 0;
-          
-            
-            for (int j=-f; j <=f; j++)
-            {
-                int k = i+j;
-                
-                if (k >=0 && k < in.length)
-                {
-                    sum += in[k];    
-                }
-                else
-                    sum += in[0];
-            }
-            
-            ret[i] = sum;
-        }
-        
-        return ret;
+        // samples out of the signal count as in[0]
+        return SlidingWindow.sum(in, f);
     }
 
     private static double[] getWindow(double[] in, int i, int kl) {
@@ -2886,23 +3014,23 @@ public class ECGProcess {
         int n = in.length;
         int kn = kernel.length;
         
-        double[] ret = new double[n];
-                
-        for (int i=0; i < n; i++)
+        double[] ret = Arrays.copyOf(in, n);
+        
+        // the kernel is split in runs of equal values, the minimum of 
+        // every run is a sliding window minimum
+        for (int k0=0; k0 < kn; )
         {
-            double min = in[i];
+            int k1 = k0;
             
-            for (int k=0; k < kn; k++)
-            {
-                int j = i + k  - kn/2;
-                
-                if ((j < 0) || (j >= n))
-                    continue;
-                
-                min = Math.min(in[j]-kernel[k], min);
-            }            
+            while ((k1+1 < kn) && (kernel[k1+1] == kernel[k0]))
+                k1++;
+            
+            double[] min = SlidingWindow.min(in, k0 - kn/2, k1 - kn/2);
             
-            ret[i] = min;
+            for (int i=0; i < n; i++)
+                ret[i] = Math.min(min[i] - kernel[k0], ret[i]);
+            
+            k0 = k1 + 1;
         }
         
         return ret;
@@ -2914,23 +3042,23 @@ public class ECGProcess {
         int n = in.length;
         int kn = kernel.length;
         
-        double[] ret = new double[n];
-                
-        for (int i=0; i < n; i++)
+        double[] ret = Arrays.copyOf(in, n);
+        
+        // the kernel is split in runs of equal values, the maximum of 
+        // every run is a sliding window maximum
+        for (int k0=0; k0 < kn; )
         {
-            double max = in[i];
+            int k1 = k0;
             
-            for (int k=0; k < kn; k++)
-            {
-                int j = i + k  - kn/2;
-                
-                if ((j < 0) || (j >= n))
-                    continue;
-                
-                max = Math.max(in[j]+kernel[k], max);
-            }            
+            while ((k1+1 < kn) && (kernel[k1+1] == kernel[k0]))
+                k1++;
             
-            ret[i] = max;
+            double[] max = SlidingWindow.max(in, k0 - kn/2, k1 - kn/2);
+            
+            for (int i=0; i < n; i++)
+                ret[i] = Math.max(max[i] + kernel[k0], ret[i]);
+            
+            k0 = k1 + 1;
         }
         
         return ret;
@@ -3243,7 +3371,42 @@ public class ECGProcess {
      * @param maxGap
      * @return 
      */
-    private static int[] detectRidgesAndValleys(double[] ridges, double[] valleys, double[] maxThreshold, 
+    static int[] detectRidgesAndValleys(double[] ridges, double[] valleys, double[] maxThreshold, 
+                                                double[] minThreshold, double posFactor, 
+                                                double negFactor, int minGap, int maxGap, double maxRateVariability) 
+    {
+        // The adaptive threshold is tracked by RidgeThresholdDetector, which 
+        // keeps the last beats in a primitive ring buffer and only the maximum 
+        // of the noise, so no garbage is created per beat
+        BeatList events = new BeatList();
+        RidgeThresholdDetector detector = new RidgeThresholdDetector(posFactor, minGap, maxGap, maxRateVariability, events);
+        
+        detector.setThresholdTrace(maxThreshold);
+        
+        for (int i=0; i < ridges.length; i++)
+            detector.put(ridges[i]);
+        
+        detector.flush();
+        
+        return events.toArray();
+    }
+
+    /**
+     * Original implementation of detectRidgesAndValleys, with boxed lists.
+     * It is only used by testRealTimeSet as an independent reference for 
+     * RidgeThresholdDetector (only the trace of the rate changes is removed)
+     * @param ridges
+     * @param valleys
+     * @param maxThreshold
+     * @param minThreshold
+     * @param posFactor
+     * @param negFactor
+     * @param minGap
+     * @param maxGap
+     * @param maxRateVariability
+     * @return 
+     */
+    private static int[] detectRidgesAndValleysReference(double[] ridges, double[] valleys, double[] maxThreshold, 
                                                 double[] minThreshold, double posFactor, 
                                                 double negFactor, int minGap, int maxGap, double maxRateVariability) 
     {
@@ -3308,9 +3471,6 @@ public class ECGProcess {
                 if ((events.size()>2) && (gap < (events.get(events.size()-1) - events.get(events.size()-2)) * (1-maxRateVariability)))
                 {
                     // not in possible beat area, so noise
-                    double prevHR = 360 *60 / (events.get(events.size()-1) - events.get(events.size()-2));
-                    double curHR = 360 * 60/ gap;
-                    System.err.println("Change from " + prevHR + " to " + curHR + " variability " + curHR/prevHR);
                     if (noise.size() == 0) preNoiseThreshold = posThreshold;
                     noise.add(r);
                     //posThreshold = ArrayUtils.getMax(noise);
@@ -3351,7 +3511,7 @@ public class ECGProcess {
 
     }
 
-    private static double[] mixRidgesValleys(double[] ridges, double[] valleys) {
+    static double[] mixRidgesValleys(double[] ridges, double[] valleys) {
         double[] ret = new double[ridges.length];
         
         
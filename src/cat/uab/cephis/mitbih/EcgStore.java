@@ -0,0 +1,577 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append only storage of long ECG recordings (e.g. 24/7 monitoring).
+ *
+ * The samples are stored in a memory mapped file (.ecg) of fixed size
+ * chunks. Every chunk has the time (ms) of its first frame, and holds the
+ * raw samples (short) and the MaMeMi filtered samples (float, exact for
+ * the half units produced by integer inputs) of all the channels. A new
+ * chunk is started when the current one is full or when the time of the
+ * appended frames is not contiguous, so the time of any sample can be
+ * computed from the start of its chunk.
+ *
+ * The detected beats (sample numbers) are stored in a second memory mapped
+ * file (.beats). Time and sample ranges are found by binary search, so
+ * queries are O(log n) with any length of the recording.
+ *
+ * Samples are read directly from the mapped files into the arrays of the
+ * caller (or a RecordSource for the detectors), without intermediate copies.
+ *
+ *   .ecg    header: magic, version, channels, chunk frames, sampling frequency
+ *           chunk:  start time, first sample, frames, raw samples, filtered samples
+ *   .beats  header: magic, version, count
+ *           beats:  sample numbers (long)
+ *
+ * Every chunk stays mapped while the store is open, so long recordings
+ * should use chunks of millions of frames. A chunk (6 bytes per sample
+ * and channel) cannot be bigger than 2 GB. Not thread safe.
+ *
+ * @author dcr
+ */
+public class EcgStore implements Closeable
+{
+    private static final int MAGIC = 0x53474345;          // "ECGS"
+    private static final int BEATS_MAGIC = 0x42474345;    // "ECGB"
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int CHUNK_HEADER_SIZE = 32;
+    private static final int BEATS_HEADER_SIZE = 16;
+    // beats mapped at a time
+    private static final int BEATS_SEGMENT = 65536;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final RandomAccessFile beatsRaf;
+    private final FileChannel beatsChannel;
+    private final ByteBuffer beatsHeader;
+
+    private final int channels;
+    private final int chunkFrames;
+    private final double samplingFreq;
+    private final long chunkSize;
+
+    // time index, one entry per chunk
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private long[] chunkTime = new long[16];
+    private long[] chunkFirst = new long[16];
+    private int[] chunkCount = new int[16];
+
+    private final List<ByteBuffer> beatSegments = new ArrayList<ByteBuffer>();
+    private long beats;
+
+    private long frames;
+
+    private EcgStore(File file, boolean create, int channels, int chunkFrames, double samplingFreq) throws IOException
+    {
+        if (create)
+        {
+            file.delete();
+            beatsFile(file).delete();
+        }
+        else if (!file.exists())
+        {
+            throw new IOException("File not found " + file);
+        }
+
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        beatsRaf = new RandomAccessFile(beatsFile(file), "rw");
+        beatsChannel = beatsRaf.getChannel();
+
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        beatsHeader = beatsChannel.map(FileChannel.MapMode.READ_WRITE, 0, BEATS_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (create)
+        {
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, channels);
+            header.putInt(12, chunkFrames);
+            header.putDouble(16, samplingFreq);
+
+            beatsHeader.putInt(0, BEATS_MAGIC);
+            beatsHeader.putInt(4, VERSION);
+            beatsHeader.putLong(8, 0);
+        }
+        else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || beatsHeader.getInt(0) != BEATS_MAGIC)
+        {
+            close();
+            throw new IOException("Invalid ECG store " + file);
+        }
+
+        this.channels = header.getInt(8);
+        this.chunkFrames = header.getInt(12);
+        this.samplingFreq = header.getDouble(16);
+        this.chunkSize = chunkSize(this.channels, this.chunkFrames);
+
+        if (this.chunkSize < 0)
+        {
+            close();
+            throw new IOException("Invalid chunk size in ECG store " + file);
+        }
+
+        // rebuild the time index from the chunk headers
+        long n = (channel.size() - HEADER_SIZE) / chunkSize;
+
+        for (int i=0; i < n; i++)
+        {
+            ByteBuffer chunk = mapChunk(i);
+
+            if (chunk.getInt(16) == 0)
+                break;      // started but never written
+
+            addChunk(chunk);
+            frames = chunkFirst[i] + chunkCount[i];
+        }
+
+        beats = beatsHeader.getLong(8);
+
+        for (int i=0; (long) i * BEATS_SEGMENT < beats; i++)
+            beatSegments.add(mapBeats(i));
+    }
+
+    /**
+     * Create a new store, deleting any previous one
+     * @param file the beats are stored in the same file with the extension .beats
+     * @param channels number of channels
+     * @param chunkFrames frames of every chunk
+     * @param samplingFreq sampling frequency (Hz)
+     * @return
+     * @throws IOException
+     */
+    public static EcgStore create(File file, int channels, int chunkFrames, double samplingFreq) throws IOException
+    {
+        if (chunkSize(channels, chunkFrames) < 0)
+            throw new IllegalArgumentException("Invalid chunk of " + chunkFrames + " frames of " + channels + " channels");
+
+        return new EcgStore(file, true, channels, chunkFrames, samplingFreq);
+    }
+
+    /**
+     * Chunks are mapped as a single buffer, and the offsets inside a chunk 
+     * are int, so a chunk cannot be bigger than Integer.MAX_VALUE bytes
+     * @param channels
+     * @param chunkFrames
+     * @return the size of a chunk in bytes, -1 if not valid
+     */
+    private static long chunkSize(int channels, int chunkFrames)
+    {
+        if (channels <= 0 || chunkFrames <= 0)
+            return -1;
+
+        long size = CHUNK_HEADER_SIZE + (long) chunkFrames * channels * 6;
+
+        return (size > Integer.MAX_VALUE)? -1 : size;
+    }
+
+    /**
+     * Open an existing store, new frames and beats are appended to it
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static EcgStore open(File file) throws IOException
+    {
+        return new EcgStore(file, false, 0, 0, 0);
+    }
+
+    public int getChannels()
+    {
+        return channels;
+    }
+
+    public double getSamplingFreq()
+    {
+        return samplingFreq;
+    }
+
+    /**
+     * @return the number of frames (samples per channel) stored
+     */
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    /**
+     * @return the number of beats stored
+     */
+    public long getBeatCount()
+    {
+        return beats;
+    }
+
+    /**
+     * Append frames.
+     * The frames continue the last chunk if their time is the expected one
+     * (with an error below one sampling period), otherwise a new chunk is
+     * started.
+     * @param time time of the first frame (ms), cannot be before the end of the stored frames
+     * @param raw interleaved raw samples of all the channels
+     * @param filtered interleaved filtered samples of all the channels, can be null
+     * @param offset first frame of the arrays
+     * @param len number of frames
+     * @throws IOException
+     */
+    public void append(long time, short[] raw, double[] filtered, int offset, int len) throws IOException
+    {
+        int done = 0;
+        double period = 1000 / samplingFreq;
+        int last = chunks.size() - 1;
+        boolean contiguous = true;
+
+        if (last >= 0)
+        {
+            long expected = getTime(last, chunkCount[last]);
+
+            if (time <= expected - period)
+                throw new IllegalArgumentException("Time " + time + " before the end of the stored frames " + expected);
+
+            contiguous = (time < expected + period);
+        }
+
+        while (done < len)
+        {
+            // a new chunk when full or not contiguous in time
+            if (last < 0 || chunkCount[last] == chunkFrames || !contiguous)
+            {
+                ByteBuffer chunk = mapChunk(chunks.size());
+
+                chunk.putLong(0, time + getMillis(done));
+                chunk.putLong(8, frames);
+                chunk.putInt(16, 0);
+
+                addChunk(chunk);
+                last++;
+                contiguous = true;
+            }
+
+            ByteBuffer chunk = chunks.get(last);
+            int count = chunkCount[last];
+            int n = Math.min(len - done, chunkFrames - count);
+
+            int rawPos = CHUNK_HEADER_SIZE + count * channels * 2;
+            int filteredPos = CHUNK_HEADER_SIZE + chunkFrames * channels * 2 + count * channels * 4;
+
+            for (int i=0; i < n * channels; i++)
+            {
+                int k = (offset + done) * channels + i;
+
+                chunk.putShort(rawPos + 2 * i, raw[k]);
+                chunk.putFloat(filteredPos + 4 * i, (filtered == null)? 0 : (float) filtered[k]);
+            }
+
+            // the count is written last, so a partial write is never visible
+            chunkCount[last] = count + n;
+            chunk.putInt(16, count + n);
+
+            frames += n;
+            done += n;
+        }
+    }
+
+    /**
+     * Append a detected beat, beats must be added in increasing order
+     * @param sample
+     * @throws IOException
+     */
+    public void addBeat(long sample) throws IOException
+    {
+        if (beats > 0 && sample < getBeat(beats - 1))
+            throw new IllegalArgumentException("Beat " + sample + " before the last beat");
+
+        int segment = (int) (beats / BEATS_SEGMENT);
+
+        while (beatSegments.size() <= segment)
+            beatSegments.add(mapBeats(beatSegments.size()));
+
+        beatSegments.get(segment).putLong((int) (beats % BEATS_SEGMENT) * 8, sample);
+
+        beats++;
+        beatsHeader.putLong(8, beats);
+    }
+
+    /**
+     * @param from first sample
+     * @param to last sample (excluded)
+     * @return the beats in the range [from, to)
+     * @throws IOException
+     */
+    public long[] getBeats(long from, long to) throws IOException
+    {
+        long first = findBeat(from);
+        long last = findBeat(to);
+
+        long[] ret = new long[(int) (last - first)];
+
+        for (int i=0; i < ret.length; i++)
+            ret[i] = getBeat(first + i);
+
+        return ret;
+    }
+
+    /**
+     * @param time (ms)
+     * @return the first sample at or after the time, getFrames() if after the end
+     */
+    public long getSample(long time)
+    {
+        int k = Arrays.binarySearch(chunkTime, 0, chunks.size(), time);
+
+        if (k >= 0)
+            return chunkFirst[k];
+
+        k = -k - 2;
+
+        // before the first chunk
+        if (k < 0)
+            return 0;
+
+        // first frame whose time (rounded as in getTime) is not before time
+        long dt = time - chunkTime[k];
+        int offset = (int) Math.min(Math.max(Math.ceil((dt - 0.5) * samplingFreq / 1000), 0), chunkCount[k]);
+
+        while (offset < chunkCount[k] && getMillis(offset) < dt)
+            offset++;
+
+        while (offset > 0 && getMillis(offset - 1) >= dt)
+            offset--;
+
+        return chunkFirst[k] + offset;
+    }
+
+    /**
+     * @param sample
+     * @return the time of the sample (ms)
+     */
+    public long getTime(long sample)
+    {
+        int k = findChunk(sample);
+
+        return getTime(k, (int) (sample - chunkFirst[k]));
+    }
+
+    /**
+     * Read the samples of a channel directly from the mapped file
+     * @param from first frame
+     * @param channel
+     * @param raw receives the raw samples, can be null
+     * @param filtered receives the filtered samples, can be null
+     * @param offset position of the arrays where the first sample is written
+     * @param len maximum number of samples
+     * @return the number of samples read, -1 if from is past the end
+     */
+    public int read(long from, int channel, double[] raw, double[] filtered, int offset, int len)
+    {
+        if (from >= frames)
+            return -1;
+
+        int n = (int) Math.min(len, frames - from);
+        int done = 0;
+
+        while (done < n)
+        {
+            int k = findChunk(from + done);
+            ByteBuffer chunk = chunks.get(k);
+            int first = (int) (from + done - chunkFirst[k]);
+            int m = Math.min(n - done, chunkCount[k] - first);
+
+            int rawPos = CHUNK_HEADER_SIZE + (first * channels + channel) * 2;
+            int filteredPos = CHUNK_HEADER_SIZE + chunkFrames * channels * 2 + (first * channels + channel) * 4;
+
+            for (int i=0; i < m; i++)
+            {
+                if (raw != null) raw[offset + done + i] = chunk.getShort(rawPos + 2 * channels * i);
+                if (filtered != null) filtered[offset + done + i] = chunk.getFloat(filteredPos + 4 * channels * i);
+            }
+
+            done += m;
+        }
+
+        return n;
+    }
+
+    /**
+     * @param from first frame
+     * @return a source of the raw samples of channels 0 and 1, from the frame from
+     */
+    public RecordSource getSource(final long from)
+    {
+        return new RecordSource()
+        {
+            private long position = from;
+
+            @Override
+            public int read(double[] ch0, double[] ch1, int offset, int len)
+            {
+                int n = EcgStore.this.read(position, 0, ch0, null, offset, len);
+
+                if (ch1 != null && channels > 1)
+                    EcgStore.this.read(position, 1, ch1, null, offset, len);
+
+                if (n > 0)
+                    position += n;
+
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Write the mapped changes to the disk
+     */
+    public void flush()
+    {
+        for (ByteBuffer chunk : chunks)
+            ((MappedByteBuffer) chunk).force();
+
+        for (ByteBuffer segment : beatSegments)
+            ((MappedByteBuffer) segment).force();
+
+        ((MappedByteBuffer) beatsHeader).force();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            channel.close();
+            raf.close();
+        }
+        finally
+        {
+            beatsChannel.close();
+            beatsRaf.close();
+        }
+    }
+
+    private static File beatsFile(File file)
+    {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+
+        return new File(file.getParentFile(), ((dot > 0)? name.substring(0, dot) : name) + ".beats");
+    }
+
+    private ByteBuffer mapChunk(int i) throws IOException
+    {
+        return channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * chunkSize, chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ByteBuffer mapBeats(int segment) throws IOException
+    {
+        return beatsChannel.map(FileChannel.MapMode.READ_WRITE, BEATS_HEADER_SIZE + (long) segment * BEATS_SEGMENT * 8, BEATS_SEGMENT * 8)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void addChunk(ByteBuffer chunk)
+    {
+        int i = chunks.size();
+
+        if (i == chunkTime.length)
+        {
+            chunkTime = Arrays.copyOf(chunkTime, i * 2);
+            chunkFirst = Arrays.copyOf(chunkFirst, i * 2);
+            chunkCount = Arrays.copyOf(chunkCount, i * 2);
+        }
+
+        chunks.add(chunk);
+        chunkTime[i] = chunk.getLong(0);
+        chunkFirst[i] = chunk.getLong(8);
+        chunkCount[i] = chunk.getInt(16);
+    }
+
+    /**
+     * @param sample
+     * @return the chunk holding the sample
+     */
+    private int findChunk(long sample)
+    {
+        if (sample < 0 || sample >= frames)
+            throw new IllegalArgumentException("Sample out of range " + sample);
+
+        int k = Arrays.binarySearch(chunkFirst, 0, chunks.size(), sample);
+
+        return (k >= 0)? k : -k - 2;
+    }
+
+    /**
+     * @param sample
+     * @return the index of the first beat at or after the sample
+     */
+    private long findBeat(long sample)
+    {
+        long lo = 0;
+        long hi = beats;
+
+        while (lo < hi)
+        {
+            long mid = (lo + hi) >>> 1;
+
+            if (getBeat(mid) < sample)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo;
+    }
+
+    private long getBeat(long i)
+    {
+        return beatSegments.get((int) (i / BEATS_SEGMENT)).getLong((int) (i % BEATS_SEGMENT) * 8);
+    }
+
+    /**
+     * @param chunk
+     * @param frame frame of the chunk
+     * @return the time of the frame (ms)
+     */
+    private long getTime(int chunk, int frame)
+    {
+        return chunkTime[chunk] + getMillis(frame);
+    }
+
+    private long getMillis(int frames)
+    {
+        return Math.round(frames * 1000 / samplingFreq);
+    }
+}
@@ -0,0 +1,361 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import static cat.uab.cephis.mitbih.ECGProcess.METHOD_JUMP;
+
+/**
+ * Integer version of the method #5 chain, as it would run on an embedded
+ * target without floating point.
+ *
+ * With integer samples and integer delta and delta * deltaFactor the max and
+ * min trackers of the MaMeMi filter are integers, and the mean is a
+ * multiple of 1/2. So every signal of the chain is kept in fixed point
+ * with FRACTIONAL_BITS fractional bits (the int value v means
+ * v / 2^FRACTIONAL_BITS), and the results are exactly the ones of the
+ * double version. Only the adaptive threshold (RidgeThresholdDetector)
+ * uses doubles, and it receives the exact value of every ridge.
+ *
+ * Samples are read as short (MIT-BIH samples have 11 bits) and the
+ * intermediate signals are int arrays, half of the memory of double arrays.
+ * The array functions compute the whole record at once and are the
+ * reference to check that the integer chain is exact. The streaming
+ * version, that keeps only the state of the filters, is
+ * FixedPointQRSDetector (see detectM5(DatFile, int, int, BeatListener)).
+ *
+ * @author dcr
+ */
+public class FixedPoint
+{
+    /**
+     * Number of fractional bits of the signals.
+     * At least 1 is needed to represent the mean exactly, 1 is enough
+     */
+    public static final int FRACTIONAL_BITS = 1;
+
+    /**
+     * Integer version of ECGProcess.minMaxFilter
+     * @param chunk
+     * @param delta
+     * @param deltaFactor
+     * @param flags
+     * @return the selected output, in fixed point
+     */
+    public static int[] minMaxFilter(short[] chunk, int delta, int deltaFactor, int flags)
+    {
+        int[] ret = new int[chunk.length];
+
+        if (chunk.length == 0)
+            return ret;
+
+        boolean jump = (flags & METHOD_JUMP) != 0;
+        int output = MaMeMiFilter.getOutput(flags);
+        int push = delta * deltaFactor;
+
+        int max = chunk[0];
+        int min = chunk[0];
+
+        for (int i=0; i < chunk.length; i++)
+        {
+            int value = chunk[i];
+
+            if (value >= max)
+                max = (jump)? value : max + push;
+            else
+                max -= delta;
+
+            if (value <= min)
+                min = (jump)? value : min - push;
+            else
+                min += delta;
+
+            ret[i] = select(output, value, max, min);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Integer version of ECGProcess.minMaxFilter computing the SELECT_VALUE, 
+     * SELECT_MEAN and SELECT_RANGE outputs in a single pass
+     * @param chunk
+     * @param delta
+     * @param deltaFactor
+     * @param flags 0 or METHOD_JUMP
+     * @param value receives the SELECT_VALUE output (fixed point), can be null
+     * @param mean receives the SELECT_MEAN output (fixed point), can be null
+     * @param range receives the SELECT_RANGE output (fixed point), can be null
+     */
+    public static void minMaxFilter(short[] chunk, int delta, int deltaFactor, int flags, int[] value, int[] mean, int[] range)
+    {
+        if (chunk.length == 0)
+            return;
+
+        boolean jump = (flags & METHOD_JUMP) != 0;
+        int push = delta * deltaFactor;
+
+        int max = chunk[0];
+        int min = chunk[0];
+
+        for (int i=0; i < chunk.length; i++)
+        {
+            int x = chunk[i];
+
+            if (x >= max)
+                max = (jump)? x : max + push;
+            else
+                max -= delta;
+
+            if (x <= min)
+                min = (jump)? x : min - push;
+            else
+                min += delta;
+
+            if (value != null) value[i] = (x << FRACTIONAL_BITS) - ((max + min) << (FRACTIONAL_BITS - 1));
+            if (mean != null) mean[i] = (max + min) << (FRACTIONAL_BITS - 1);
+            if (range != null) range[i] = (max > min)? (max - min) << FRACTIONAL_BITS : 0;
+        }
+    }
+
+    /**
+     * @param output MaMeMiFilter.OUT_* code
+     * @param value
+     * @param max
+     * @param min
+     * @return the output of the filter in fixed point
+     */
+    private static int select(int output, int value, int max, int min)
+    {
+        // (max + min) / 2 in fixed point
+        int mean = (max + min) << (FRACTIONAL_BITS - 1);
+        int v = value << FRACTIONAL_BITS;
+
+        switch (output)
+        {
+            case MaMeMiFilter.OUT_VALUE: return v - mean;
+            case MaMeMiFilter.OUT_MEAN: return mean;
+            case MaMeMiFilter.OUT_RANGE: return (max > min)? (max - min) << FRACTIONAL_BITS : 0;
+            case MaMeMiFilter.OUT_MAX: return max << FRACTIONAL_BITS;
+            case MaMeMiFilter.OUT_MAX_MINUS_MEAN: return (max << FRACTIONAL_BITS) - mean;
+            case MaMeMiFilter.OUT_VALUE_MINUS_MIN: return v - (min << FRACTIONAL_BITS);
+            case MaMeMiFilter.OUT_MEAN_OR_VALUE: return (value>max)? v : (value < min)? v : mean;
+            case MaMeMiFilter.OUT_VALUE_OUT_OF_RANGE: return (value>=max)? (v - mean) : (value <= min)? (v - mean) : 0;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Integer version of ECGProcess.reduceRange.
+     * The result is stored in a (which is returned)
+     * @param a
+     * @param b
+     * @return
+     */
+    public static int[] reduceRange(int[] a, int[] b)
+    {
+        for (int i=0; i < a.length; i++)
+        {
+            int x = a[i];
+
+            a[i] = (x > 0)? Math.max(x - b[i], 0) : Math.min(x + b[i], 0);
+        }
+
+        return a;
+    }
+
+    /**
+     * Integer version of ECGProcess.triangleHeight
+     * @param in
+     * @param f
+     * @return
+     */
+    public static int[] triangleHeight(int[] in, int f)
+    {
+        int[] ret = new int[in.length];
+
+        for (int i=f; i < in.length-f; i++)
+        {
+            int x = in[i];
+            int a = in[i-f];
+            int b = in[i+f];
+            int z = 0;
+
+            if (x > 0) if (x > a && x > b) z = x - Math.max(a, b);
+            if (x < 0) if (x < a && x < b) z = (x - Math.min(a, b));
+
+            ret[i] = z;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Integer version of ECGProcess.ridges
+     * @param in
+     * @return
+     */
+    public static int[] ridges(int[] in)
+    {
+        int[] ret = new int[in.length];
+
+        if (in.length == 0)
+            return ret;
+
+        int lastx = in[0];
+        int state = 0;
+
+        for (int i=1; i < ret.length; i++)
+        {
+            int x = in[i];
+
+            switch (state)
+            {
+                case 0: if (x > lastx) state = 1; break;   // up
+                case 1: if (x < lastx)
+                        {
+                            // down
+                            state = -1;
+                            ret[i] = lastx;
+                        }
+                        break;
+                case -1:
+                        state = 0;
+                        break;
+            }
+
+            lastx = x;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Integer version of ECGProcess.valleys
+     * @param in
+     * @return
+     */
+    public static int[] valleys(int[] in)
+    {
+        int[] ret = new int[in.length];
+
+        if (in.length == 0)
+            return ret;
+
+        int lastx = in[0];
+        int state = 0;
+
+        for (int i=1; i < ret.length; i++)
+        {
+            int x = in[i];
+
+            switch (state)
+            {
+                case 0: if (x < lastx) state = 1; break;   // down
+                case 1: if (x > lastx)
+                        {
+                            // up
+                            state = -1;
+                            ret[i] = lastx;
+                        }
+                        break;
+                case -1:
+                        state = 0;
+                        break;
+            }
+
+            lastx = x;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Integer version of ECGProcess.mixRidgesValleys.
+     * The result is stored in ridges (which is returned)
+     * @param ridges
+     * @param valleys
+     * @return
+     */
+    public static int[] mixRidgesValleys(int[] ridges, int[] valleys)
+    {
+        for (int i=0; i < ridges.length; i++)
+        {
+            int r = ridges[i];
+            int v = valleys[i];
+
+            ridges[i] = (r > 0)? r : (v < 0)? -v : 0;
+        }
+
+        return ridges;
+    }
+
+    /**
+     * Method #5 on integer samples, with the parameters of Pipeline.M5.
+     * The beats are the same as ECGProcess.detectM5
+     * @param chunk0
+     * @return the detected beats
+     */
+    public static int[] detectM5(short[] chunk0)
+    {
+        int[] hpData = new int[chunk0.length];
+        int[] range = new int[chunk0.length];
+
+        minMaxFilter(chunk0, 2, 2, 0, hpData, null, range);
+        int[] t2 = triangleHeight(reduceRange(hpData, range), 15);
+        int[] filteredRidges = mixRidgesValleys(ridges(t2), valleys(t2));
+
+        BeatList beats = new BeatList();
+        RidgeThresholdDetector detector = new RidgeThresholdDetector(0.3, 90, 700, .85, beats);
+
+        for (int i=0; i < filteredRidges.length; i++)
+            detector.put(filteredRidges[i] / (double) (1 << FRACTIONAL_BITS));
+
+        detector.flush();
+
+        return beats.toArray();
+    }
+
+    /**
+     * Method #5 on integer samples over a record of any length. The channel 0 
+     * is read from the DAT file in chunks of short samples and streamed 
+     * through FixedPointQRSDetector.
+     * @param dat
+     * @param start first sample
+     * @param length number of samples
+     * @param listener receives the detected beats, relative to start
+     */
+    public static void detectM5(DatFile dat, int start, int length, RidgeThresholdDetector.BeatListener listener)
+    {
+        short[] chunk0 = new short[8192];
+        FixedPointQRSDetector detector = new FixedPointQRSDetector(listener);
+
+        int end = start + length;
+        int n;
+
+        for (int p = start; p < end && (n = dat.read(p, chunk0, null, 0, Math.min(chunk0.length, end - p))) > 0; p += n)
+            detector.put(chunk0, 0, n);
+
+        detector.flush();
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import static cat.uab.cephis.mitbih.FixedPoint.FRACTIONAL_BITS;
+
+/**
+ * Real-time integer version of the method #5, the streaming counterpart of
+ * FixedPoint.detectM5.
+ *
+ * The chain is the same as in QRSDetector, with the state of the MaMeMi
+ * filter and the signals kept as int in fixed point (see FixedPoint).
+ * triangleHeight is computed over a ring buffer of 2f+1 samples, so the
+ * memory used does not depend on the length of the signal. Only the
+ * adaptive threshold (RidgeThresholdDetector) uses doubles.
+ *
+ * @author dcr
+ */
+public class FixedPointQRSDetector
+{
+    private final int delta;
+    private final int push;
+    private final int f;
+    private final RidgeThresholdDetector detector;
+
+    // MaMeMi filter state
+    private int max;
+    private int min;
+
+    // last 2f+1 samples of the reduced range signal, head is the position
+    // of the current sample (count % window.length)
+    private final int[] window;
+    private int head = 0;
+    private int count = 0;
+
+    // ridges and valleys state
+    private int triangles = 0;
+    private int lastx;
+    private int ridgeState = 0;
+    private int valleyState = 0;
+
+    /**
+     * Detector with the parameters of Pipeline.M5
+     * @param listener
+     */
+    public FixedPointQRSDetector(RidgeThresholdDetector.BeatListener listener)
+    {
+        this(2, 2, 15, 0.3, 90, 700, .85, listener);
+    }
+
+    /**
+     *
+     * @param delta MaMeMi filter delta
+     * @param deltaFactor MaMeMi filter delta factor
+     * @param f triangleHeight distance
+     * @param posFactor
+     * @param minGap
+     * @param maxGap
+     * @param maxRateVariability
+     * @param listener
+     */
+    public FixedPointQRSDetector(int delta, int deltaFactor, int f, double posFactor, int minGap, int maxGap, double maxRateVariability,
+            RidgeThresholdDetector.BeatListener listener)
+    {
+        this.delta = delta;
+        this.push = delta * deltaFactor;
+        this.f = f;
+        this.window = new int[2*f+1];
+        this.detector = new RidgeThresholdDetector(posFactor, minGap, maxGap, maxRateVariability, listener);
+    }
+
+    /**
+     * Process the next sample of the signal.
+     * @param sample
+     */
+    public void put(int sample)
+    {
+        if (count == 0)
+        {
+            max = sample;
+            min = sample;
+        }
+
+        // MaMeMi filter
+        if (sample >= max)
+            max += push;
+        else
+            max -= delta;
+
+        if (sample <= min)
+            min -= push;
+        else
+            min += delta;
+
+        int value = (sample << FRACTIONAL_BITS) - ((max + min) << (FRACTIONAL_BITS - 1));
+        int range = (max > min)? (max - min) << FRACTIONAL_BITS : 0;
+
+        // reduceRange
+        int reduced = (value > 0)? Math.max(value - range, 0) : Math.min(value + range, 0);
+
+        window[head] = reduced;
+
+        int i = count - f;
+
+        // positions of the samples i and i-f
+        int xi = (head >= f)? head - f : head - f + window.length;
+        int ai = (head + 1 < window.length)? head + 1 : 0;
+
+        count++;
+        head = ai;
+
+        if (i < 0)
+            return;
+
+        int triangle = 0;
+
+        if (i >= f)
+        {
+            // triangleHeight
+            int x = window[xi];
+            int a = window[ai];
+            int b = reduced;
+
+            if (x > 0) if (x > a && x > b) triangle = x - Math.max(a, b);
+            if (x < 0) if (x < a && x < b) triangle = (x - Math.min(a, b));
+        }
+
+        putTriangle(triangle);
+    }
+
+    public void put(short[] samples, int offset, int len)
+    {
+        for (int i=0; i < len; i++)
+            put(samples[offset + i]);
+    }
+
+    /**
+     * Notify the end of the signal.
+     * The last f samples have no triangle height, like in the batch version
+     */
+    public void flush()
+    {
+        while (triangles < count)
+            putTriangle(0);
+
+        detector.flush();
+    }
+
+    private void putTriangle(int x)
+    {
+        int ridge = 0;
+        int valley = 0;
+
+        if (triangles++ == 0)
+        {
+            lastx = x;
+            detector.put(0);
+            return;
+        }
+
+        switch (ridgeState)
+        {
+            case 0: if (x > lastx) ridgeState = 1; break;   // up
+            case 1: if (x < lastx)
+                    {
+                        // down
+                        ridgeState = -1;
+                        ridge = lastx;
+                    }
+                    break;
+            case -1:
+                    ridgeState = 0;
+                    break;
+        }
+
+        switch (valleyState)
+        {
+            case 0: if (x < lastx) valleyState = 1; break;   // down
+            case 1: if (x > lastx)
+                    {
+                        // up
+                        valleyState = -1;
+                        valley = lastx;
+                    }
+                    break;
+            case -1:
+                    valleyState = 0;
+                    break;
+        }
+
+        lastx = x;
+
+        // mixRidgesValleys
+        int mixed = (ridge > 0)? ridge : (valley < 0)? -valley : 0;
+
+        detector.put(mixed / (double) (1 << FRACTIONAL_BITS));
+    }
+}
@@ -25,26 +25,53 @@ package cat.uab.cephis.mitbih;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import static cat.uab.cephis.mitbih.ECGProcess.SELECT_VALUE;
 
 /**
+ * Frequency response of the MaMeMi filter for different amplitudes.
+ *
+ * Every point filters a sine (as SignalGenerator.greateSinSignal) sampled
+ * at 3600 Hz until the output reaches the steady state, and then measures
+ * its amplitude. The sine is generated on the fly into a MaMeMiFilter, so
+ * no arrays are allocated, and the points are computed in parallel.
  *
  * @author dcr
  */
 public class FrequencyResponse {
+    
+    private static final double SAMPLING_FREQ = 3600;
+    private static final int OFFSET = 1024;
+    // maximum duration of the transient (samples)
+    private static final int MAX_TRANSIENT = 36000;
+    // the output amplitude is measured during one second (or one period)
+    private static final int WINDOW = 3600;
+    // number of previous periods where the state of the filter is searched
+    private static final int HISTORY = 64;
+    // relative growth of the output amplitude in WINDOW samples below which it has converged
+    private static final double CONVERGENCE = 1e-4;
+    
     public static void main(String[] args) 
     {
 	File dir = new File("C:\\Projects\\Research\\INT_QRS\\Freq Response");
 	
-	generateMultipleExcels(dir);
-	//generateGnu3dplot(dir);
+	// optional argument: number of threads
+	int threads = (args.length > 0)? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+	
+	generateMultipleExcels(dir, threads);
+	//generateGnu3dplot(dir, threads);
 	
     }
     
@@ -88,14 +115,28 @@ public class FrequencyResponse {
 	return (max - min)/2;
     }
 
+    /**
+     * The frequencies of a response, from lowFreq to highFreq in divs steps
+     */
+    private static List<Double> frequencies(double lowFreq, int highFreq, int divs)
+    {
+	List<Double> ret = new ArrayList<>();
+	double step = (highFreq - lowFreq) / divs;
+	
+	for (double i = lowFreq; i < highFreq; i += step)
+	    ret.add(i);
+	
+	return ret;
+    }
+
     private static void freqResponse(File outFile, double lowFreq, int highFreq, int divs, double amplitude, int filter1, int filter2) throws FileNotFoundException
     {
+	// PrintWriter(File) is buffered, the file is only written when full
 	PrintWriter out = new PrintWriter(outFile);
-	double step = (highFreq - lowFreq) / divs;
 	
 	out.println("Freq (Hz);Response;Output;Input;");
 	
-	for (double i = lowFreq; i < highFreq; i += step)
+	for (double i : frequencies(lowFreq, highFreq, divs))
 	{
 	    double outputAmplitude = computeResponse(i, amplitude, filter1, filter2);
 	    
@@ -105,59 +146,192 @@ public class FrequencyResponse {
 	out.close();
     }
     
-    private static ArrayList<Map.Entry<Double, Double>> freqResponseAsHash(double lowFreq, int highFreq, int divs, double amplitude, int filter1, int filter2) throws FileNotFoundException
+    private static ArrayList<Map.Entry<Double, Double>> freqResponseAsHash(double lowFreq, int highFreq, int divs, double amplitude, int filter1, int filter2)
     {
 	ArrayList<Map.Entry<Double, Double>> ret = new ArrayList<>();
 	
-	double step = (highFreq - lowFreq) / divs;
-	
-	
-	for (double i = lowFreq; i < highFreq; i += step)
+	for (double i : frequencies(lowFreq, highFreq, divs))
 	{
 	    double outputAmplitude = computeResponse(i, amplitude, filter1, filter2);
 	
 	    
-	    ret.add(new AbstractMap.SimpleEntry(i, 20*Math.log10(outputAmplitude/amplitude)));
+	    ret.add(new AbstractMap.SimpleEntry<>(i, 20*Math.log10(outputAmplitude/amplitude)));
 	}
 	
 	return ret;
     }
 
+    /**
+     * Amplitude of the output of the filter in steady state.
+     *
+     * The input has an integer period, so once the state of the filter (max
+     * and min) at the end of a period is the same found some periods before,
+     * the output repeats. This is usually reached after a few periods, much
+     * sooner than the 10 seconds simulated before, and the amplitude is
+     * measured along the whole cycle found. When the period is longer than
+     * WINDOW the first WINDOW samples are skipped instead.
+     *
+     * When the slope of the input is smaller than delta the max and min
+     * follow the input, and the output is a ripple bounded by the steps of
+     * the trackers. Its extremes depend on the position of the input between
+     * two steps of delta and on the phase between the sawtooths of the max
+     * and the min, which shifts every time the input crosses a step. So once
+     * the input has moved more than delta * (deltaFactor + 1) and the
+     * amplitude stops growing, it is not measured along the rest of the
+     * period (3.6M samples at 0.001 Hz).
+     */
     private static double computeResponse(double freq, double amplitude, int filter1, int filter2) 
     {
-	double[] sin = SignalGenerator.greateSinSignal(10, freq, 3600, amplitude, 1024);
-	double[] filtered = ECGProcess.minMaxFilter(sin,  filter1, filter2, SELECT_VALUE   );
+	MaMeMiFilter filter = new MaMeMiFilter(filter1, filter2, SELECT_VALUE);
+	
+	int periodInSamples = (int) (SAMPLING_FREQ / freq);
+	double t = (1.0/periodInSamples) * 2 * Math.PI;
+	long i = 0;
+	// samples after which the output repeats
+	long cycle = periodInSamples;
+	
+	// transient, greateSinSignal stores sin(t*(i+1)) in the sample i
+	if (periodInSamples > WINDOW)
+	{
+	    for (; i < WINDOW; i++)
+		filter.filter(OFFSET + amplitude * Math.sin(t*(i+1)));
+	}
+	else
+	{
+	    double[] maxs = new double[HISTORY];
+	    double[] mins = new double[HISTORY];
+	    
+	    for (int k=0; i + periodInSamples <= MAX_TRANSIENT; k++)
+	    {
+		for (int s=0; s < periodInSamples; s++, i++)
+		    filter.filter(OFFSET + amplitude * Math.sin(t*(i+1)));
+		
+		maxs[k % HISTORY] = filter.getMax();
+		mins[k % HISTORY] = filter.getMin();
+		
+		int j = isRepeated(maxs, mins, k, 1e-9 * amplitude);
+		
+		if (j > 0)
+		{
+		    cycle = (long) j * periodInSamples;
+		    break;
+		}
+	    }
+	}
+	
+	// the max and min follow the input (maximum slope of the sine below delta)
+	boolean tracking = periodInSamples > WINDOW && amplitude * t < filter1;
+	
+	// whole cycles
+	long samples = Math.max(WINDOW, cycle);
+	samples = ((samples + cycle - 1) / cycle) * cycle;
+	
+	double max = 0;
+	double min = 0;
+	double inputMax = 0;
+	double inputMin = 0;
+	double lastRange = 0;
+	
+	for (long s=0; s < samples; s++, i++)
+	{
+	    double x = amplitude * Math.sin(t*(i+1));
+	    double y = filter.filter(OFFSET + x);
+	    
+	    if (s == 0)
+	    {
+		max = y;
+		min = y;
+		inputMax = x;
+		inputMin = x;
+	    }
+	    else
+	    {
+		if (max < y) max = y;
+		if (min > y) min = y;
+		if (inputMax < x) inputMax = x;
+		if (inputMin > x) inputMin = x;
+	    }
+	    
+	    // the envelope has converged when it did not grow during the last WINDOW samples
+	    if (tracking && (s + 1) % WINDOW == 0)
+	    {
+		if (inputMax - inputMin > filter1 * (filter2 + 1) && (max - min) - lastRange <= CONVERGENCE * (max - min))
+		    break;
+		
+		lastRange = max - min;
+	    }
+	}
 
-	return getAmplitude(filtered, 3600);
+	return (max - min)/2;
+    }
+    
+    /**
+     * @return the number of periods j such that the state after the period k 
+     * is the one after the period k-j, 0 if not found in the previous HISTORY periods
+     */
+    private static int isRepeated(double[] maxs, double[] mins, int k, double tolerance)
+    {
+	double max = maxs[k % HISTORY];
+	double min = mins[k % HISTORY];
+	
+	for (int j=1; j <= Math.min(k, HISTORY-1); j++)
+	{
+	    int p = (k - j) % HISTORY;
+	    
+	    if (Math.abs(max - maxs[p]) + Math.abs(min - mins[p]) <= tolerance)
+		return j;
+	}
+	
+	return 0;
     }
 
-    private static void generateMultipleFreqResponsePerAmplitude(File dir, int start, int end, int step, int divs, int f1, int f2) throws FileNotFoundException
+    private static void generateMultipleFreqResponsePerAmplitude(final File dir, int start, int end, int step, final int divs, final int f1, final int f2, 
+	    ExecutorService executor, List<Future<?>> tasks)
     {
 	
 	    for (int a=start; a < end; a += step)
 	    {
-		 freqResponse(new File(dir, "filt_"+f1+"_"+f2+"_"+a+".csv"), 0.001, 50, divs, a, f1, f2);		
+		final int amplitude = a;
+		
+		tasks.add(executor.submit(new Callable<Void>()
+		{
+		    @Override
+		    public Void call() throws FileNotFoundException
+		    {
+			freqResponse(new File(dir, "filt_"+f1+"_"+f2+"_"+amplitude+".csv"), 0.001, 50, divs, amplitude, f1, f2);
+			return null;
+		    }
+		}));
 	    }
 	
     }
 
-    private static void generateSingleFreqResponsePerAmplitude(File dir, int start, int end, int step, int divs, int filter1, int filter2) throws FileNotFoundException {
+    private static void generateSingleFreqResponsePerAmplitude(File dir, int start, int end, int step, final int divs, final int filter1, final int filter2, 
+	    ExecutorService executor) throws IOException {
 	
 	ArrayList<Map.Entry<Integer, ArrayList<Map.Entry<Double, Double>>>> cols = new ArrayList<>();
+	List<Future<ArrayList<Map.Entry<Double, Double>>>> tasks = new ArrayList<>();
 	
-	try
+	for (int a=start; a < end; a += step)
 	{
-	    for (int a=start; a < end; a += step)
+	    final int amplitude = a;
+	    
+	    // Generate Column
+	    tasks.add(executor.submit(new Callable<ArrayList<Map.Entry<Double, Double>>>()
 	    {
-		System.out.println("Computing " + a);
-		// Generate Column
-		ArrayList<Map.Entry<Double, Double>> col = freqResponseAsHash(0.001, 50, divs, a, filter1, filter2);	
-		
-		cols.add(new AbstractMap.SimpleEntry(a, col));
-	    }
+		@Override
+		public ArrayList<Map.Entry<Double, Double>> call()
+		{
+		    return freqResponseAsHash(0.001, 50, divs, amplitude, filter1, filter2);
+		}
+	    }));
 	}
-	catch (FileNotFoundException ex) {
-	    Logger.getLogger(FrequencyResponse.class.getName()).log(Level.SEVERE, null, ex);
+	
+	for (int a=start, k=0; a < end; a += step, k++)
+	{
+	    System.out.println("Computing " + a);
+	    
+	    cols.add(new AbstractMap.SimpleEntry<>(a, getResult(tasks.get(k))));
 	}
 	
 	File outFile =  new File(dir, "filt_"+filter1+"_"+filter2+"_amplitude.csv");
@@ -204,28 +378,39 @@ public class FrequencyResponse {
 	out.close();
     }
 
-    private static void generateGnu3dplot(File dir) 
+    private static void generateGnu3dplot(File dir, int threads) 
     {
 	int freqDivs = 100;
 	int ampDivs = 100;
 	
 	int step = (1000-10) / ampDivs;
+	
+	ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+	
 	try {
 	    //generateMultipleFreqResponsePerAmplitude(dir, 10, 1000, 20, divs);
+	    
+	    // the columns of every file are computed in parallel
 	    for (int f1 = 1; f1 < 10; f1++)
 		for (int f2=1; f2 < 10; f2++)
-		    generateSingleFreqResponsePerAmplitude(dir, 10, 1000, step, freqDivs, f1, f2);
-	} catch (FileNotFoundException ex) {
+		    generateSingleFreqResponsePerAmplitude(dir, 10, 1000, step, freqDivs, f1, f2, executor);
+	} catch (IOException ex) {
 	    Logger.getLogger(FrequencyResponse.class.getName()).log(Level.SEVERE, null, ex);
-	}	
+	} finally {
+	    executor.shutdownNow();
+	}
     }
     
-    private static void generateMultipleExcels(File dir) 
+    private static void generateMultipleExcels(File dir, int threads) 
     {
 	int freqDivs = 100;
 	int ampDivs = 100;
 	
 	int step = (1000-10) / ampDivs;
+	
+	ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+	List<Future<?>> tasks = new ArrayList<>();
+	
 	try {
 	    //
 	    for (int f2=1; f2 < 10; f2++)
@@ -233,11 +418,36 @@ public class FrequencyResponse {
 		{
 		    
 		
-		    generateMultipleFreqResponsePerAmplitude(dir, 10, 1000, step, freqDivs, f1, f2);
-		    //generateSingleFreqResponsePerAmplitude(dir, 10, 1000, step, freqDivs, f1, f2);
+		    generateMultipleFreqResponsePerAmplitude(dir, 10, 1000, step, freqDivs, f1, f2, executor, tasks);
+		    //generateSingleFreqResponsePerAmplitude(dir, 10, 1000, step, freqDivs, f1, f2, executor);
 		}
-	} catch (FileNotFoundException ex) {
+	    
+	    for (Future<?> task : tasks)
+		getResult(task);
+	} catch (IOException ex) {
 	    Logger.getLogger(FrequencyResponse.class.getName()).log(Level.SEVERE, null, ex);
-	}	
+	} finally {
+	    executor.shutdownNow();
+	}
+    }
+    
+    private static <T> T getResult(Future<T> task) throws IOException
+    {
+	try
+	{
+	    return task.get();
+	}
+	catch (InterruptedException ex)
+	{
+	    Thread.currentThread().interrupt();
+	    throw new IOException(ex);
+	}
+	catch (ExecutionException ex)
+	{
+	    if (ex.getCause() instanceof IOException)
+		throw (IOException) ex.getCause();
+	    
+	    throw new RuntimeException(ex.getCause());
+	}
     }
 }
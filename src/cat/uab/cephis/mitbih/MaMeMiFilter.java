@@ -0,0 +1,511 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import static cat.uab.cephis.mitbih.ECGProcess.METHOD_JUMP;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_MAX;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_MAX_MINUS_MEAN;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_MEAN;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_MEAN_OR_VALUE;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_RANGE;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_VALUE;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_VALUE_MINUS_MIN;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_VALUE_OUT_OF_RANGE;
+
+/**
+ * Streaming version of the MaMeMi filter.
+ *
+ * The filter only keeps the max and min trackers, so samples can be
+ * processed one at a time (or in small blocks) as they arrive from the
+ * digitizer. The output is the same as ECGProcess.minMaxFilter on the
+ * whole array.
+ *
+ * The flags are decoded once in the constructor. The block filters choose
+ * a loop for METHOD_JUMP and the selected output before processing the
+ * samples, so the loops have no switch or test of the flags.
+ *
+ * @author dcr
+ */
+public class MaMeMiFilter
+{
+    static final int OUT_ZERO = 0;
+    static final int OUT_VALUE = 1;
+    static final int OUT_MEAN = 2;
+    static final int OUT_RANGE = 3;
+    static final int OUT_MAX = 4;
+    static final int OUT_MAX_MINUS_MEAN = 5;
+    static final int OUT_VALUE_MINUS_MIN = 6;
+    static final int OUT_MEAN_OR_VALUE = 7;
+    static final int OUT_VALUE_OUT_OF_RANGE = 8;
+
+    private final double delta;
+    private final double deltaFactor;
+    private final boolean jump;
+    private final int output;
+
+    private double max;
+    private double min;
+    private boolean started = false;
+
+    /**
+     * @param delta amount the max (min) decays towards the signal on every sample
+     * @param deltaFactor multiplier of delta used when the signal pushes the max (min)
+     * @param flags one of the ECGProcess.SELECT_* values, optionally or'ed with METHOD_JUMP
+     */
+    public MaMeMiFilter(double delta, double deltaFactor, int flags)
+    {
+        this.delta = delta;
+        this.deltaFactor = deltaFactor;
+        this.jump = (flags & METHOD_JUMP) != 0;
+        this.output = getOutput(flags);
+    }
+
+    /**
+     * @param flags
+     * @return the OUT_* code of the output selected by the flags (when
+     * several SELECT_* flags are given the last one wins)
+     */
+    static int getOutput(int flags)
+    {
+        int ret = OUT_ZERO;
+
+        if ((flags & SELECT_VALUE) != 0) ret = OUT_VALUE;
+        if ((flags & SELECT_MEAN) != 0) ret = OUT_MEAN;
+        if ((flags & SELECT_RANGE) != 0) ret = OUT_RANGE;
+        if ((flags & SELECT_MAX) != 0) ret = OUT_MAX;
+        if ((flags & SELECT_MAX_MINUS_MEAN) != 0) ret = OUT_MAX_MINUS_MEAN;
+        if ((flags & SELECT_VALUE_MINUS_MIN) != 0) ret = OUT_VALUE_MINUS_MIN;
+        if ((flags & SELECT_MEAN_OR_VALUE) != 0) ret = OUT_MEAN_OR_VALUE;
+        if ((flags & SELECT_VALUE_OUT_OF_RANGE) != 0) ret = OUT_VALUE_OUT_OF_RANGE;
+
+        return ret;
+    }
+
+    /**
+     * Forget the state, the next sample will initialize max and min again
+     */
+    public void reset()
+    {
+        started = false;
+    }
+
+    /**
+     * Process a sample
+     * @param value the input sample
+     * @return the output selected by the flags
+     */
+    public double filter(double value)
+    {
+        start(value);
+
+        if (value >= max)
+            max = (jump)? value : max + delta * deltaFactor;
+        else
+            max -= delta;
+
+        if (value <= min)
+            min = (jump)? value : min - delta * deltaFactor;
+        else
+            min += delta;
+
+        return select(output, value, max, min);
+    }
+
+    /**
+     * Process a block of samples.
+     * in and out can be the same array.
+     *
+     * @param in
+     * @param inOffset
+     * @param out
+     * @param outOffset
+     * @param len
+     */
+    public void filter(double[] in, int inOffset, double[] out, int outOffset, int len)
+    {
+        if (len <= 0)
+            return;
+
+        start(in[inOffset]);
+
+        // the state is kept in locals and the jump is decided out of the loop
+        if (jump)
+            filterJump(in, inOffset, out, outOffset, len);
+        else
+            filterPush(in, inOffset, out, outOffset, len);
+    }
+
+    /**
+     * Block filter with METHOD_JUMP (the max and min jump to the signal).
+     * There is a loop for every output, so the loops have no switch
+     */
+    private void filterJump(double[] in, int inOffset, double[] out, int outOffset, int len)
+    {
+        double mx = max;
+        double mn = min;
+
+        switch (output)
+        {
+            case OUT_VALUE:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? value : mx - delta;
+                    mn = (value <= mn)? value : mn + delta;
+
+                    out[outOffset + i] = value - (mx + mn) / 2;
+                }
+                break;
+            case OUT_MEAN:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? value : mx - delta;
+                    mn = (value <= mn)? value : mn + delta;
+
+                    out[outOffset + i] = (mx + mn) / 2;
+                }
+                break;
+            case OUT_RANGE:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? value : mx - delta;
+                    mn = (value <= mn)? value : mn + delta;
+
+                    out[outOffset + i] = (mx > mn)? mx - mn :  0;
+                }
+                break;
+            case OUT_MAX:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? value : mx - delta;
+                    mn = (value <= mn)? value : mn + delta;
+
+                    out[outOffset + i] = mx;
+                }
+                break;
+            case OUT_MAX_MINUS_MEAN:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? value : mx - delta;
+                    mn = (value <= mn)? value : mn + delta;
+
+                    out[outOffset + i] = mx - (mx + mn) / 2;
+                }
+                break;
+            case OUT_VALUE_MINUS_MIN:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? value : mx - delta;
+                    mn = (value <= mn)? value : mn + delta;
+
+                    out[outOffset + i] = value - mn;
+                }
+                break;
+            case OUT_MEAN_OR_VALUE:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? value : mx - delta;
+                    mn = (value <= mn)? value : mn + delta;
+
+                    out[outOffset + i] = (value>mx)? value :  (value < mn)? value : (mx + mn) / 2;
+                }
+                break;
+            case OUT_VALUE_OUT_OF_RANGE:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? value : mx - delta;
+                    mn = (value <= mn)? value : mn + delta;
+
+                    out[outOffset + i] = (value>=mx)? (value - (mx + mn) / 2) : (value <= mn)? (value - (mx + mn) / 2) : 0;
+                }
+                break;
+            default:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? value : mx - delta;
+                    mn = (value <= mn)? value : mn + delta;
+
+                    out[outOffset + i] = 0;
+                }
+                break;
+        }
+
+        max = mx;
+        min = mn;
+    }
+
+    /**
+     * Block filter without METHOD_JUMP (the signal pushes the max and min).
+     * There is a loop for every output, so the loops have no switch
+     */
+    private void filterPush(double[] in, int inOffset, double[] out, int outOffset, int len)
+    {
+        double mx = max;
+        double mn = min;
+        double push = delta * deltaFactor;
+
+        switch (output)
+        {
+            case OUT_VALUE:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? mx + push : mx - delta;
+                    mn = (value <= mn)? mn - push : mn + delta;
+
+                    out[outOffset + i] = value - (mx + mn) / 2;
+                }
+                break;
+            case OUT_MEAN:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? mx + push : mx - delta;
+                    mn = (value <= mn)? mn - push : mn + delta;
+
+                    out[outOffset + i] = (mx + mn) / 2;
+                }
+                break;
+            case OUT_RANGE:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? mx + push : mx - delta;
+                    mn = (value <= mn)? mn - push : mn + delta;
+
+                    out[outOffset + i] = (mx > mn)? mx - mn :  0;
+                }
+                break;
+            case OUT_MAX:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? mx + push : mx - delta;
+                    mn = (value <= mn)? mn - push : mn + delta;
+
+                    out[outOffset + i] = mx;
+                }
+                break;
+            case OUT_MAX_MINUS_MEAN:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? mx + push : mx - delta;
+                    mn = (value <= mn)? mn - push : mn + delta;
+
+                    out[outOffset + i] = mx - (mx + mn) / 2;
+                }
+                break;
+            case OUT_VALUE_MINUS_MIN:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? mx + push : mx - delta;
+                    mn = (value <= mn)? mn - push : mn + delta;
+
+                    out[outOffset + i] = value - mn;
+                }
+                break;
+            case OUT_MEAN_OR_VALUE:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? mx + push : mx - delta;
+                    mn = (value <= mn)? mn - push : mn + delta;
+
+                    out[outOffset + i] = (value>mx)? value :  (value < mn)? value : (mx + mn) / 2;
+                }
+                break;
+            case OUT_VALUE_OUT_OF_RANGE:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? mx + push : mx - delta;
+                    mn = (value <= mn)? mn - push : mn + delta;
+
+                    out[outOffset + i] = (value>=mx)? (value - (mx + mn) / 2) : (value <= mn)? (value - (mx + mn) / 2) : 0;
+                }
+                break;
+            default:
+                for (int i=0; i < len; i++)
+                {
+                    double value = in[inOffset + i];
+
+                    mx = (value >= mx)? mx + push : mx - delta;
+                    mn = (value <= mn)? mn - push : mn + delta;
+
+                    out[outOffset + i] = 0;
+                }
+                break;
+        }
+
+        max = mx;
+        min = mn;
+    }
+
+    /**
+     * Process a block of samples computing several outputs in a single pass.
+     * The flags of the filter are ignored, except METHOD_JUMP.
+     *
+     * @param in
+     * @param inOffset
+     * @param value receives the SELECT_VALUE output, can be null
+     * @param mean receives the SELECT_MEAN output, can be null
+     * @param range receives the SELECT_RANGE output, can be null
+     * @param outOffset
+     * @param len
+     */
+    public void filter(double[] in, int inOffset, double[] value, double[] mean, double[] range, int outOffset, int len)
+    {
+        if (len <= 0)
+            return;
+
+        start(in[inOffset]);
+
+        double mx = max;
+        double mn = min;
+        double push = delta * deltaFactor;
+
+        if (jump)
+        {
+            for (int i=0; i < len; i++)
+            {
+                double x = in[inOffset + i];
+
+                mx = (x >= mx)? x : mx - delta;
+                mn = (x <= mn)? x : mn + delta;
+
+                double m = (mx + mn) / 2;
+
+                if (value != null) value[outOffset + i] = x - m;
+                if (mean != null) mean[outOffset + i] = m;
+                if (range != null) range[outOffset + i] = (mx > mn)? mx - mn :  0;
+            }
+        }
+        else
+        {
+            for (int i=0; i < len; i++)
+            {
+                double x = in[inOffset + i];
+
+                mx = (x >= mx)? mx + push : mx - delta;
+                mn = (x <= mn)? mn - push : mn + delta;
+
+                double m = (mx + mn) / 2;
+
+                if (value != null) value[outOffset + i] = x - m;
+                if (mean != null) mean[outOffset + i] = m;
+                if (range != null) range[outOffset + i] = (mx > mn)? mx - mn :  0;
+            }
+        }
+
+        max = mx;
+        min = mn;
+    }
+
+    /**
+     * Initialize max and min with the first sample
+     * @param value
+     */
+    private void start(double value)
+    {
+        if (!started)
+        {
+            max = value;
+            min = value;
+            started = true;
+        }
+    }
+
+    /**
+     * @param output OUT_* code
+     * @param value
+     * @param max
+     * @param min
+     * @return the output of the filter
+     */
+    private static double select(int output, double value, double max, double min)
+    {
+        switch (output)
+        {
+            case OUT_VALUE: return value - (max + min) / 2;
+            case OUT_MEAN: return (max + min) / 2;
+            case OUT_RANGE: return (max > min)? max - min :  0;
+            case OUT_MAX: return max;
+            case OUT_MAX_MINUS_MEAN: return max - (max + min) / 2;
+            case OUT_VALUE_MINUS_MIN: return value - min;
+            case OUT_MEAN_OR_VALUE: return (value>max)? value :  (value < min)? value : (max + min) / 2;
+            case OUT_VALUE_OUT_OF_RANGE: return (value>=max)? (value - (max + min) / 2) : (value <= min)? (value - (max + min) / 2) : 0;
+            default: return 0;
+        }
+    }
+
+    public double getMax()
+    {
+        return max;
+    }
+
+    public double getMin()
+    {
+        return min;
+    }
+
+    public double getMean()
+    {
+        return (max + min) / 2;
+    }
+
+    /**
+     * @return the range of the last processed sample (as SELECT_RANGE)
+     */
+    public double getRange()
+    {
+        return (max > min)? max - min :  0;
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+/**
+ * Multi-resolution index of the maximum and minimum of a signal.
+ *
+ * Level k keeps the max and min of every block of BASE * 2^k samples, so
+ * the max and min of any range are found in O(log n) by combining the
+ * largest blocks that fit in it, plus at most BASE-1 samples at each end.
+ * The index is built once in O(n) and takes about half the memory of the
+ * signal.
+ *
+ * It lets Plot1D draw a zoomed out signal with one segment per pixel
+ * column, no matter how many samples fall in it.
+ *
+ * @author dcr
+ */
+public class MinMaxPyramid
+{
+    private static final int BASE = 16;
+
+    private final double[] data;
+    private final int len;
+    private final double[][] max;
+    private final double[][] min;
+
+    /**
+     * @param data the signal, it is not copied
+     * @param len number of valid samples of data
+     */
+    public MinMaxPyramid(double[] data, int len)
+    {
+        this.data = data;
+        this.len = Math.min(len, data.length);
+
+        int levels = 0;
+
+        for (int n = this.len / BASE; n > 0; n /= 2)
+            levels++;
+
+        max = new double[levels][];
+        min = new double[levels][];
+
+        if (levels == 0)
+            return;
+
+        int n = this.len / BASE;
+        max[0] = new double[n];
+        min[0] = new double[n];
+
+        for (int b=0; b < n; b++)
+        {
+            double mx = data[b * BASE];
+            double mn = mx;
+
+            for (int i = b * BASE + 1; i < (b + 1) * BASE; i++)
+            {
+                if (data[i] > mx) mx = data[i];
+                if (data[i] < mn) mn = data[i];
+            }
+
+            max[0][b] = mx;
+            min[0][b] = mn;
+        }
+
+        for (int k=1; k < levels; k++)
+        {
+            n = max[k-1].length / 2;
+            max[k] = new double[n];
+            min[k] = new double[n];
+
+            for (int b=0; b < n; b++)
+            {
+                max[k][b] = Math.max(max[k-1][2*b], max[k-1][2*b+1]);
+                min[k][b] = Math.min(min[k-1][2*b], min[k-1][2*b+1]);
+            }
+        }
+    }
+
+    public int getLength()
+    {
+        return len;
+    }
+
+    /**
+     * Find the maximum and minimum of the samples [from, to)
+     * @param from first sample, clipped to the signal
+     * @param to last sample (exclusive), clipped to the signal
+     * @param ret receives the maximum in ret[0] and the minimum in ret[1]
+     * @return false if the range is empty
+     */
+    public boolean getMaxMin(int from, int to, double[] ret)
+    {
+        if (from < 0) from = 0;
+        if (to > len) to = len;
+
+        if (from >= to)
+            return false;
+
+        double mx = data[from];
+        double mn = mx;
+
+        // samples before the first block
+        while (from < to && (from % BASE) != 0)
+        {
+            if (data[from] > mx) mx = data[from];
+            if (data[from] < mn) mn = data[from];
+            from++;
+        }
+
+        // samples after the last block
+        while (to > from && (to % BASE) != 0)
+        {
+            to--;
+            if (data[to] > mx) mx = data[to];
+            if (data[to] < mn) mn = data[to];
+        }
+
+        // whole blocks, [b0, b1) at every level
+        int b0 = from / BASE;
+        int b1 = to / BASE;
+
+        for (int k=0; b0 < b1; k++)
+        {
+            if ((b0 & 1) != 0)
+            {
+                if (max[k][b0] > mx) mx = max[k][b0];
+                if (min[k][b0] < mn) mn = min[k][b0];
+                b0++;
+            }
+
+            if ((b1 & 1) != 0)
+            {
+                b1--;
+                if (max[k][b1] > mx) mx = max[k][b1];
+                if (min[k][b1] < mn) mn = min[k][b1];
+            }
+
+            b0 /= 2;
+            b1 /= 2;
+        }
+
+        ret[0] = mx;
+        ret[1] = mn;
+
+        return true;
+    }
+}
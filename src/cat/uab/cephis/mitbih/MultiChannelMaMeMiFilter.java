@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import static cat.uab.cephis.mitbih.ECGProcess.METHOD_JUMP;
+
+/**
+ * MaMeMi filter of many channels at the same time.
+ *
+ * The max and min of a single channel depend on the previous sample, so
+ * the filter cannot be vectorized along the time. The channels are
+ * independent, so the state is kept as arrays (one max and one min per
+ * channel) and every frame updates all the channels in simple loops
+ * without branches, that the JIT compiler can vectorize. The conditions
+ * are computed as bit masks from the sign of a difference, as the JIT
+ * does not vectorize conditional moves of doubles.
+ *
+ * Frames are interleaved: sample c of frame t is in[t * channels + c].
+ * The output of every channel is the same as MaMeMiFilter (and
+ * ECGProcess.minMaxFilter) on that channel alone.
+ *
+ * @author dcr
+ */
+public class MultiChannelMaMeMiFilter
+{
+    private final int channels;
+    private final double delta;
+    private final double deltaFactor;
+    private final boolean jump;
+    private final int output;
+
+    private final double[] max;
+    private final double[] min;
+    private boolean started = false;
+
+    /**
+     * @param channels number of channels
+     * @param delta amount the max (min) decays towards the signal on every sample
+     * @param deltaFactor multiplier of delta used when the signal pushes the max (min)
+     * @param flags one of the ECGProcess.SELECT_* values, optionally or'ed with METHOD_JUMP
+     */
+    public MultiChannelMaMeMiFilter(int channels, double delta, double deltaFactor, int flags)
+    {
+        this.channels = channels;
+        this.delta = delta;
+        this.deltaFactor = deltaFactor;
+        this.jump = (flags & METHOD_JUMP) != 0;
+        this.output = MaMeMiFilter.getOutput(flags);
+
+        max = new double[channels];
+        min = new double[channels];
+    }
+
+    public int getChannels()
+    {
+        return channels;
+    }
+
+    /**
+     * Forget the state, the next frame will initialize max and min again
+     */
+    public void reset()
+    {
+        started = false;
+    }
+
+    /**
+     * Process a block of frames.
+     * in and out can be the same array.
+     *
+     * @param in interleaved frames
+     * @param inOffset
+     * @param out receives the interleaved output frames
+     * @param outOffset
+     * @param frames number of frames
+     */
+    public void filter(double[] in, int inOffset, double[] out, int outOffset, int frames)
+    {
+        for (int t=0; t < frames; t++)
+        {
+            int pi = inOffset + t * channels;
+            int po = outOffset + t * channels;
+
+            if (!started)
+            {
+                System.arraycopy(in, pi, max, 0, channels);
+                System.arraycopy(in, pi, min, 0, channels);
+                started = true;
+            }
+
+            if (jump)
+                updateJump(in, pi);
+            else
+                update(in, pi);
+
+            select(in, pi, out, po);
+        }
+    }
+
+    public double getMax(int channel)
+    {
+        return max[channel];
+    }
+
+    public double getMin(int channel)
+    {
+        return min[channel];
+    }
+
+    private void update(double[] in, int p)
+    {
+        double up = delta * deltaFactor;
+
+        for (int c=0; c < channels; c++)
+        {
+            double v = in[p + c];
+            double mx = max[c];
+            double mn = min[c];
+
+            // (v >= mx)? mx + up : mx - delta
+            max[c] = select(mx + up, mx - delta, negative(v - mx));
+            // (v <= mn)? mn - up : mn + delta
+            min[c] = select(mn - up, mn + delta, negative(mn - v));
+        }
+    }
+
+    private void updateJump(double[] in, int p)
+    {
+        for (int c=0; c < channels; c++)
+        {
+            double v = in[p + c];
+            double mx = max[c];
+            double mn = min[c];
+
+            max[c] = select(v, mx - delta, negative(v - mx));
+            min[c] = select(v, mn + delta, negative(mn - v));
+        }
+    }
+
+    private void select(double[] in, int pi, double[] out, int po)
+    {
+        // a loop for every output, so that the loops have no branches
+        switch (output)
+        {
+            case MaMeMiFilter.OUT_VALUE:
+                for (int c=0; c < channels; c++)
+                    out[po + c] = in[pi + c] - (max[c] + min[c]) / 2;
+                break;
+            case MaMeMiFilter.OUT_MEAN:
+                for (int c=0; c < channels; c++)
+                    out[po + c] = (max[c] + min[c]) / 2;
+                break;
+            case MaMeMiFilter.OUT_RANGE:
+                for (int c=0; c < channels; c++)
+                {
+                    // (max > min)? max - min : 0
+                    double range = max[c] - min[c];
+                    out[po + c] = select(range, 0, negative(range) | zero(range));
+                }
+                break;
+            case MaMeMiFilter.OUT_MAX:
+                System.arraycopy(max, 0, out, po, channels);
+                break;
+            case MaMeMiFilter.OUT_MAX_MINUS_MEAN:
+                for (int c=0; c < channels; c++)
+                    out[po + c] = max[c] - (max[c] + min[c]) / 2;
+                break;
+            case MaMeMiFilter.OUT_VALUE_MINUS_MIN:
+                for (int c=0; c < channels; c++)
+                    out[po + c] = in[pi + c] - min[c];
+                break;
+            case MaMeMiFilter.OUT_MEAN_OR_VALUE:
+                for (int c=0; c < channels; c++)
+                {
+                    // (v > max || v < min)? v : mean
+                    double v = in[pi + c];
+                    long outside = negative(max[c] - v) | negative(v - min[c]);
+                    out[po + c] = select((max[c] + min[c]) / 2, v, outside);
+                }
+                break;
+            case MaMeMiFilter.OUT_VALUE_OUT_OF_RANGE:
+                for (int c=0; c < channels; c++)
+                {
+                    // (v >= max || v <= min)? v - mean : 0
+                    double v = in[pi + c];
+                    long inside = negative(v - max[c]) & negative(min[c] - v);
+                    out[po + c] = select(v - (max[c] + min[c]) / 2, 0, inside);
+                }
+                break;
+            default:
+                for (int c=0; c < channels; c++)
+                    out[po + c] = 0;
+        }
+    }
+
+    /**
+     * @param x
+     * @return all ones if x is less than 0, else 0
+     */
+    private static long negative(double x)
+    {
+        // adding 0 turns -0 into 0
+        return Double.doubleToRawLongBits(x + 0.0) >> 63;
+    }
+
+    /**
+     * @param x
+     * @return all ones if x is 0, else 0
+     */
+    private static long zero(double x)
+    {
+        long bits = Double.doubleToRawLongBits(x + 0.0);
+
+        return ((bits | -bits) >> 63) ^ -1L;
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @param mask all ones or 0
+     * @return b if the mask is all ones, else a
+     */
+    private static double select(double a, double b, long mask)
+    {
+        long bitsA = Double.doubleToRawLongBits(a);
+
+        return Double.longBitsToDouble(bitsA ^ ((bitsA ^ Double.doubleToRawLongBits(b)) & mask));
+    }
+}
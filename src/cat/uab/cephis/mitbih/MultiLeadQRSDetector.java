@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+/**
+ * Two lead version of the real-time method #5 (QRSDetector).
+ *
+ * Both leads go through their own front end (MaMeMi filter, reduceRange
+ * and triangleHeight, see TriangleHeightFilter) in the same pass over the
+ * samples. The triangle heights are fused before looking for ridges, so
+ * there is a single ridge detector and a single adaptive threshold.
+ *
+ * The magnitude of the triangle height of every lead is normalized by a
+ * peak tracker that decays exponentially. A QRS complex is seen in both
+ * leads at the same time and adds up, while the noise of a single lead
+ * contributes at most half of the fused signal. A noisy lead also keeps a
+ * high peak, which reduces its weight in the fusion. The peaks start at
+ * the maximum of the first maxGap triangle heights, as the threshold.
+ *
+ * @author dcr
+ */
+public class MultiLeadQRSDetector
+{
+    private final TriangleHeightFilter lead0;
+    private final TriangleHeightFilter lead1;
+    private final RidgeThresholdDetector detector;
+
+    // peak trackers of the triangle height of every lead
+    private final double peakDecay;
+    private double peak0 = 0;
+    private double peak1 = 0;
+
+    // triangle heights received before the initial peaks are known
+    private double[] startup0;
+    private double[] startup1;
+    private int startupCount = 0;
+
+    // ridges state
+    private int triangles = 0;
+    private double lastx;
+    private int ridgeState = 0;
+
+    /**
+     * Detector with the parameters of Pipeline.M5, the peaks decay to
+     * the half in 2 seconds (at 360 Hz)
+     * @param listener
+     */
+    public MultiLeadQRSDetector(RidgeThresholdDetector.BeatListener listener)
+    {
+        this(2, 2, 15, 0.3, 90, 700, .85, 720, listener);
+    }
+
+    /**
+     *
+     * @param delta MaMeMi filter delta
+     * @param deltaFactor MaMeMi filter delta factor
+     * @param f triangleHeight distance
+     * @param posFactor
+     * @param minGap
+     * @param maxGap
+     * @param maxRateVariability
+     * @param peakHalfLife number of samples for the peak of a lead to decay to the half
+     * @param listener
+     */
+    public MultiLeadQRSDetector(double delta, double deltaFactor, int f, double posFactor, int minGap, int maxGap, double maxRateVariability,
+            int peakHalfLife, RidgeThresholdDetector.BeatListener listener)
+    {
+        this.lead0 = new TriangleHeightFilter(delta, deltaFactor, f);
+        this.lead1 = new TriangleHeightFilter(delta, deltaFactor, f);
+        this.detector = new RidgeThresholdDetector(posFactor, minGap, maxGap, maxRateVariability, listener);
+        this.peakDecay = Math.pow(0.5, 1.0 / peakHalfLife);
+
+        startup0 = new double[maxGap];
+        startup1 = new double[maxGap];
+    }
+
+    /**
+     * Process the next sample of both leads.
+     * @param sample0
+     * @param sample1
+     */
+    public void put(double sample0, double sample1)
+    {
+        boolean ready = lead0.put(sample0);
+        lead1.put(sample1);
+
+        if (ready)
+            putTriangles(lead0.getTriangle(), lead1.getTriangle());
+    }
+
+    /**
+     * Process samples interleaved as in the DAT file (lead 0, lead 1, lead 0, ...)
+     * @param frames
+     * @param offset
+     * @param len number of frames (pairs of samples)
+     */
+    public void put(double[] frames, int offset, int len)
+    {
+        for (int i=0; i < len; i++)
+            put(frames[offset + 2*i], frames[offset + 2*i + 1]);
+    }
+
+    public void put(double[] ch0, double[] ch1, int offset, int len)
+    {
+        for (int i=0; i < len; i++)
+            put(ch0[offset + i], ch1[offset + i]);
+    }
+
+    /**
+     * Notify the end of the signal.
+     * The last f samples have no triangle height, like in the single lead version
+     */
+    public void flush()
+    {
+        while (startupCount + triangles < lead0.getCount())
+            putTriangles(0, 0);
+
+        if (startup0 != null)
+            start();
+
+        detector.flush();
+    }
+
+    private void putTriangles(double t0, double t1)
+    {
+        if (startup0 != null)
+        {
+            startup0[startupCount] = t0;
+            startup1[startupCount] = t1;
+            startupCount++;
+
+            if (startupCount == startup0.length)
+                start();
+
+            return;
+        }
+
+        fuse(t0, t1);
+    }
+
+    private void start()
+    {
+        double[] initial0 = startup0;
+        double[] initial1 = startup1;
+        int n = startupCount;
+
+        for (int i=0; i < n; i++)
+        {
+            peak0 = Math.max(peak0, Math.abs(initial0[i]));
+            peak1 = Math.max(peak1, Math.abs(initial1[i]));
+        }
+
+        startup0 = null;
+        startup1 = null;
+        startupCount = 0;
+
+        for (int i=0; i < n; i++)
+            fuse(initial0[i], initial1[i]);
+    }
+
+    private void fuse(double t0, double t1)
+    {
+        double a0 = Math.abs(t0);
+        double a1 = Math.abs(t1);
+
+        peak0 = Math.max(a0, peak0 * peakDecay);
+        peak1 = Math.max(a1, peak1 * peakDecay);
+
+        double x = ((peak0 > 0)? a0 / peak0 : 0) + ((peak1 > 0)? a1 / peak1 : 0);
+
+        double ridge = 0;
+
+        if (triangles++ == 0)
+        {
+            lastx = x;
+            detector.put(0);
+            return;
+        }
+
+        switch (ridgeState)
+        {
+            case 0: if (x > lastx) ridgeState = 1; break;   // up
+            case 1: if (x < lastx)
+                    {
+                        // down
+                        ridgeState = -1;
+                        ridge = lastx;
+                    }
+                    break;
+            case -1:
+                    ridgeState = 0;
+                    break;
+        }
+
+        lastx = x;
+
+        detector.put(ridge);
+    }
+}
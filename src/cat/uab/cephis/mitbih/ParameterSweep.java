@@ -0,0 +1,382 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Evaluation of the method #5 with many combinations of its parameters
+ * over a set of records.
+ *
+ * The records and their annotations are decoded once. The work is split in
+ * tasks (record, delta, deltaFactor) that run in parallel, and every task
+ * computes the MaMeMi filter once, the triangle height once for every f,
+ * and only runs the threshold detector for every combination of the
+ * threshold parameters. So changing only posFactor does not recompute the
+ * filter.
+ *
+ * Usage: ParameterSweep [threads] [random combinations]
+ *   without the second argument the whole grid is evaluated
+ *
+ * @author dcr
+ */
+public class ParameterSweep
+{
+    /**
+     * Parameters of the method #5
+     */
+    public static class Params
+    {
+        public final double delta;
+        public final double deltaFactor;
+        public final int f;
+        public final double posFactor;
+        public final int minGap;
+        public final int maxGap;
+        public final double maxRateVariability;
+
+        public Params(double delta, double deltaFactor, int f, double posFactor, int minGap, int maxGap, double maxRateVariability)
+        {
+            this.delta = delta;
+            this.deltaFactor = deltaFactor;
+            this.f = f;
+            this.posFactor = posFactor;
+            this.minGap = minGap;
+            this.maxGap = maxGap;
+            this.maxRateVariability = maxRateVariability;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "" + delta + ";" + deltaFactor + ";" + f + ";" + posFactor + ";" + minGap + ";" + maxGap + ";" + maxRateVariability;
+        }
+    }
+
+    private final int[] sets;
+    // samples of the lead 0, as short to keep all the records in memory
+    private final short[][] records;
+    private final int[][] annotations;
+    private int totalBeats = 0;
+
+    /**
+     * Decode the records and their annotations
+     * @param sets
+     * @throws IOException
+     */
+    public ParameterSweep(int[] sets) throws IOException
+    {
+        this.sets = sets;
+        this.records = new short[sets.length][];
+        this.annotations = new int[sets.length][];
+
+        for (int i=0; i < sets.length; i++)
+        {
+            String set = "" + sets[i];
+
+            short[] ch0 = RecordCache.shared().getSamples(set).ch0;
+
+            // the last sample is dropped, as in ECGProcess.readRecord
+            records[i] = Arrays.copyOf(ch0, Math.max(ch0.length - 1, 0));
+            annotations[i] = RecordCache.shared().getBeats(set);
+            totalBeats += annotations[i].length;
+        }
+    }
+
+    /**
+     * @return all the combinations of the values
+     */
+    public static List<Params> grid(double[] deltas, double[] deltaFactors, int[] fs, double[] posFactors,
+            int[] minGaps, int[] maxGaps, double[] maxRateVariabilities)
+    {
+        List<Params> ret = new ArrayList<Params>();
+
+        for (double delta : deltas)
+            for (double deltaFactor : deltaFactors)
+                for (int f : fs)
+                    for (double posFactor : posFactors)
+                        for (int minGap : minGaps)
+                            for (int maxGap : maxGaps)
+                                for (double maxRateVariability : maxRateVariabilities)
+                                    ret.add(new Params(delta, deltaFactor, f, posFactor, minGap, maxGap, maxRateVariability));
+
+        return ret;
+    }
+
+    /**
+     * @param count number of combinations
+     * @param seed
+     * @return combinations taking a random value of every parameter
+     */
+    public static List<Params> random(int count, long seed, double[] deltas, double[] deltaFactors, int[] fs, double[] posFactors,
+            int[] minGaps, int[] maxGaps, double[] maxRateVariabilities)
+    {
+        Random random = new Random(seed);
+        List<Params> ret = new ArrayList<Params>();
+
+        for (int i=0; i < count; i++)
+            ret.add(new Params(deltas[random.nextInt(deltas.length)],
+                    deltaFactors[random.nextInt(deltaFactors.length)],
+                    fs[random.nextInt(fs.length)],
+                    posFactors[random.nextInt(posFactors.length)],
+                    minGaps[random.nextInt(minGaps.length)],
+                    maxGaps[random.nextInt(maxGaps.length)],
+                    maxRateVariabilities[random.nextInt(maxRateVariabilities.length)]));
+
+        return ret;
+    }
+
+    /**
+     * Evaluate every combination over all the records
+     * @param combinations
+     * @param threads number of tasks run in parallel
+     * @return the false positives and false negatives of every combination
+     * @throws IOException
+     */
+    public int[][] evaluate(List<Params> combinations, int threads) throws IOException
+    {
+        // combinations sharing the MaMeMi filter
+        Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+
+        for (int i=0; i < combinations.size(); i++)
+        {
+            Params p = combinations.get(i);
+            String key = p.delta + ";" + p.deltaFactor;
+
+            if (!groups.containsKey(key))
+                groups.put(key, new ArrayList<Integer>());
+
+            groups.get(key).add(i);
+        }
+
+        int[][] results = new int[combinations.size()][2];
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+
+        try
+        {
+            List<List<Integer>> taskGroups = new ArrayList<List<Integer>>();
+            List<Future<int[][]>> futures = new ArrayList<Future<int[][]>>();
+
+            for (int r=0; r < records.length; r++)
+            {
+                for (List<Integer> group : groups.values())
+                {
+                    final int record = r;
+                    final List<Params> params = new ArrayList<Params>();
+
+                    for (int index : group)
+                        params.add(combinations.get(index));
+
+                    taskGroups.add(group);
+                    futures.add(executor.submit(new Callable<int[][]>()
+                    {
+                        @Override
+                        public int[][] call()
+                        {
+                            return evaluate(record, params);
+                        }
+                    }));
+                }
+            }
+
+            // the sums are done in the same order for any number of threads
+            for (int t=0; t < futures.size(); t++)
+            {
+                int[][] errors = futures.get(t).get();
+                List<Integer> group = taskGroups.get(t);
+
+                for (int k=0; k < group.size(); k++)
+                {
+                    results[group.get(k)][0] += errors[k][0];
+                    results[group.get(k)][1] += errors[k][1];
+                }
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        catch (ExecutionException ex)
+        {
+            throw new RuntimeException(ex.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * Evaluate combinations that share delta and deltaFactor on a record
+     * @param record
+     * @param params
+     * @return the false positives and false negatives of every combination
+     */
+    private int[][] evaluate(int record, List<Params> params)
+    {
+        short[] samples = records[record];
+        double[] chunk0 = new double[samples.length];
+
+        for (int i=0; i < samples.length; i++)
+            chunk0[i] = samples[i];
+
+        Params first = params.get(0);
+
+        double[] hpData = new double[chunk0.length];
+        double[] range = new double[chunk0.length];
+
+        ECGProcess.minMaxFilter(chunk0, first.delta, first.deltaFactor, 0, hpData, null, range);
+        double[] squared = ECGProcess.reduceRange(hpData, range);
+
+        // combinations sharing the triangle height
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<Integer, List<Integer>>();
+
+        for (int k=0; k < params.size(); k++)
+        {
+            int f = params.get(k).f;
+
+            if (!groups.containsKey(f))
+                groups.put(f, new ArrayList<Integer>());
+
+            groups.get(f).add(k);
+        }
+
+        int[][] ret = new int[params.size()][];
+
+        BeatList beats = new BeatList();
+
+        for (Map.Entry<Integer, List<Integer>> group : groups.entrySet())
+        {
+            double[] t2 = ECGProcess.triangleHeight(squared, group.getKey());
+            double[] filteredRidges = ECGProcess.mixRidgesValleys(ECGProcess.ridges(t2), ECGProcess.valleys(t2));
+
+            for (int k : group.getValue())
+            {
+                Params p = params.get(k);
+
+                beats.clear();
+
+                RidgeThresholdDetector detector = new RidgeThresholdDetector(p.posFactor, p.minGap, p.maxGap, p.maxRateVariability, beats);
+
+                for (int i=0; i < filteredRidges.length; i++)
+                    detector.put(filteredRidges[i]);
+
+                detector.flush();
+
+                int[] errors = ECGProcess.countErrors(beats.toArray(), annotations[record]);
+
+                ret[k] = new int[]{errors[1], errors[2]};
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Print the results as a CSV table, and the best combination (lowest DER)
+     * @param combinations
+     * @param results
+     */
+    public void report(List<Params> combinations, int[][] results)
+    {
+        System.out.println("delta;deltaFactor;f;posFactor;minGap;maxGap;maxRateVariability;FP;FN;Se%;+P%;DER%;");
+
+        int best = -1;
+        double bestDER = Double.MAX_VALUE;
+
+        for (int i=0; i < combinations.size(); i++)
+        {
+            int fp = results[i][0];
+            int fn = results[i][1];
+
+            double TQRS = totalBeats;
+            double TP = TQRS - fn;
+            double Se = TP / (TP + fn);
+            double pP = TP / (TP + fp);
+            double DER = (fn + fp) / TQRS;
+
+            System.out.println(combinations.get(i) + ";" + fp + ";" + fn + ";" + Se + ";" + pP + ";" + DER + ";");
+
+            if (DER < bestDER)
+            {
+                bestDER = DER;
+                best = i;
+            }
+        }
+
+        if (best >= 0)
+            System.out.println("Best;" + combinations.get(best) + ";DER%;" + bestDER);
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            int threads = (args.length > 0)? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+            // around the parameters of Pipeline.M5
+            double[] deltas = {1, 2, 3};
+            double[] deltaFactors = {1, 2, 3};
+            int[] fs = {10, 15, 20};
+            double[] posFactors = {0.2, 0.3, 0.4};
+            int[] minGaps = {70, 90, 110};
+            int[] maxGaps = {500, 700, 900};
+            double[] maxRateVariabilities = {.75, .85, .95};
+
+            List<Params> combinations = (args.length > 1)? 
+                    random(Integer.parseInt(args[1]), 0, deltas, deltaFactors, fs, posFactors, minGaps, maxGaps, maxRateVariabilities) :
+                    grid(deltas, deltaFactors, fs, posFactors, minGaps, maxGaps, maxRateVariabilities);
+
+            ParameterSweep sweep = new ParameterSweep(ECGProcess.WHOLE_SET);
+
+            long t0 = System.nanoTime();
+
+            int[][] results = sweep.evaluate(combinations, threads);
+
+            sweep.report(combinations, results);
+
+            System.err.println("Combinations: " + combinations.size() + " Time (ms): " + (System.nanoTime() - t0) / 1000000);
+
+        } catch (Exception ex) {
+            Logger.getLogger(ParameterSweep.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
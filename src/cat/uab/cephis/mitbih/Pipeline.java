@@ -0,0 +1,397 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.util.ArrayList;
+import java.util.List;
+import static cat.uab.cephis.mitbih.ECGProcess.METHOD_JUMP;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_MAX;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_MAX_MINUS_MEAN;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_MEAN;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_MEAN_OR_VALUE;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_RANGE;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_VALUE;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_VALUE_MINUS_MIN;
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_VALUE_OUT_OF_RANGE;
+
+/**
+ * Detector built as a chain of stages applied to the lead 0, followed by the
+ * adaptive threshold of the method #5 (ECGProcess.detectRidgesAndValleys).
+ *
+ * Pipelines can be written as text, with the stages separated by '|', e.g.
+ * the method #5 is
+ *
+ *   mamemiReduced(2,2) | triangleHeight(15) | ridgesValleys | threshold(0.3,90,700,0.85)
+ *
+ * Stages:
+ *   mamemi(delta,deltaFactor[,flags])  ECGProcess.minMaxFilter, flags are the SELECT_* names
+ *                                      without prefix joined by '+' (default VALUE), e.g. MEAN+JUMP
+ *   mamemiReduced(delta,deltaFactor)   reduceRange of the MaMeMi value and range
+ *   triangleHeight(f)
+ *   ridges, valleys, ridgesValleys     (ridgesValleys is mixRidgesValleys of both)
+ *   lp(f), hp(f), median(f), integrate(f)
+ *   derivate, absolute, positive, square
+ *   threshold(posFactor,minGap,maxGap,maxRateVariability)  must be the last one,
+ *                                      the parameters of M5 are used if missing
+ *
+ * @author dcr
+ */
+public class Pipeline implements BeatDetector
+{
+    /**
+     * The method #5
+     */
+    public static final String M5 = "mamemiReduced(2,2) | triangleHeight(15) | ridgesValleys | threshold(0.3,90,700,0.85)";
+
+    private final List<Stage> stages = new ArrayList<Stage>();
+    private final List<String> names = new ArrayList<String>();
+
+    private double posFactor = 0.3;
+    private int minGap = 90;
+    private int maxGap = 700;
+    private double maxRateVariability = .85;
+
+    /**
+     * Add a stage at the end of the pipeline
+     * @param name name of the stage, used to describe the pipeline
+     * @param stage
+     * @return this pipeline
+     */
+    public Pipeline add(String name, Stage stage)
+    {
+        names.add(name);
+        stages.add(stage);
+        return this;
+    }
+
+    /**
+     * Set the parameters of the adaptive threshold
+     * @return this pipeline
+     */
+    public Pipeline threshold(double posFactor, int minGap, int maxGap, double maxRateVariability)
+    {
+        this.posFactor = posFactor;
+        this.minGap = minGap;
+        this.maxGap = maxGap;
+        this.maxRateVariability = maxRateVariability;
+        return this;
+    }
+
+    /**
+     * Apply the stages to a signal
+     * @param in
+     * @return the input of the threshold detector
+     */
+    public double[] process(double[] in)
+    {
+        double[] signal = in;
+
+        for (Stage stage : stages)
+            signal = stage.process(signal);
+
+        return signal;
+    }
+
+    @Override
+    public int[] detect(double[] chunk0, double[] chunk1)
+    {
+        return detect(chunk0, chunk1, null);
+    }
+
+    /**
+     * The output of every stage is traced with the name of the stage
+     */
+    @Override
+    public int[] detect(double[] chunk0, double[] chunk1, Trace trace)
+    {
+        double[] ridges = chunk0;
+
+        for (int i=0; i < stages.size(); i++)
+        {
+            ridges = stages.get(i).process(ridges);
+
+            if (trace != null)
+                trace.add(names.get(i), ridges);
+        }
+
+        double[] maxThreshold = new double[ridges.length];
+
+        if (trace != null)
+            trace.threshold = maxThreshold;
+
+        return ECGProcess.detectRidgesAndValleys(ridges, null, maxThreshold, null,
+                posFactor, 1, minGap, maxGap, maxRateVariability);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for (String name : names)
+            sb.append(name).append(" | ");
+
+        sb.append("threshold(").append(posFactor).append(",").append(minGap).append(",")
+                .append(maxGap).append(",").append(maxRateVariability).append(")");
+
+        return sb.toString();
+    }
+
+    /**
+     * Build a pipeline from its text description
+     * @param config
+     * @return
+     */
+    public static Pipeline parse(String config)
+    {
+        Pipeline pipeline = new Pipeline();
+
+        String[] parts = config.split("\\|");
+
+        for (int i=0; i < parts.length; i++)
+        {
+            String part = parts[i].trim();
+
+            if (part.isEmpty())
+                continue;
+
+            String name = part;
+            String[] args = new String[0];
+
+            int open = part.indexOf('(');
+
+            if (open >= 0)
+            {
+                if (!part.endsWith(")"))
+                    throw new IllegalArgumentException("Missing ')' in " + part);
+
+                name = part.substring(0, open).trim();
+                String list = part.substring(open + 1, part.length() - 1).trim();
+
+                if (!list.isEmpty())
+                    args = list.split(",");
+
+                for (int k=0; k < args.length; k++)
+                    args[k] = args[k].trim();
+            }
+
+            if (name.equals("threshold"))
+            {
+                if (i != parts.length - 1)
+                    throw new IllegalArgumentException("threshold must be the last stage");
+
+                checkArgs(name, args, 4, 4);
+
+                pipeline.threshold(Double.parseDouble(args[0]), Integer.parseInt(args[1]),
+                        Integer.parseInt(args[2]), Double.parseDouble(args[3]));
+            }
+            else
+            {
+                pipeline.add(part, createStage(name, args));
+            }
+        }
+
+        return pipeline;
+    }
+
+    /**
+     * @param name
+     * @param args
+     * @return the stage with this name
+     */
+    public static Stage createStage(String name, String[] args)
+    {
+        switch (name)
+        {
+            case "mamemi":
+            {
+                checkArgs(name, args, 2, 3);
+
+                final double delta = Double.parseDouble(args[0]);
+                final double deltaFactor = Double.parseDouble(args[1]);
+                final int flags = (args.length > 2)? parseFlags(args[2]) : SELECT_VALUE;
+
+                return new Stage()
+                {
+                    @Override
+                    public double[] process(double[] in)
+                    {
+                        return ECGProcess.minMaxFilter(in, delta, deltaFactor, flags);
+                    }
+                };
+            }
+            case "mamemiReduced":
+            {
+                checkArgs(name, args, 2, 2);
+
+                final double delta = Double.parseDouble(args[0]);
+                final double deltaFactor = Double.parseDouble(args[1]);
+
+                return new Stage()
+                {
+                    @Override
+                    public double[] process(double[] in)
+                    {
+                        double[] value = new double[in.length];
+                        double[] range = new double[in.length];
+
+                        ECGProcess.minMaxFilter(in, delta, deltaFactor, 0, value, null, range);
+
+                        return ECGProcess.reduceRange(value, range);
+                    }
+                };
+            }
+            case "triangleHeight":
+            {
+                checkArgs(name, args, 1, 1);
+
+                final int f = Integer.parseInt(args[0]);
+
+                return new Stage()
+                {
+                    @Override
+                    public double[] process(double[] in)
+                    {
+                        return ECGProcess.triangleHeight(in, f);
+                    }
+                };
+            }
+            case "ridges":
+                checkArgs(name, args, 0, 0);
+
+                return new Stage()
+                {
+                    @Override
+                    public double[] process(double[] in)
+                    {
+                        return ECGProcess.ridges(in);
+                    }
+                };
+            case "valleys":
+                checkArgs(name, args, 0, 0);
+
+                return new Stage()
+                {
+                    @Override
+                    public double[] process(double[] in)
+                    {
+                        return ECGProcess.valleys(in);
+                    }
+                };
+            case "ridgesValleys":
+                checkArgs(name, args, 0, 0);
+
+                return new Stage()
+                {
+                    @Override
+                    public double[] process(double[] in)
+                    {
+                        return ECGProcess.mixRidgesValleys(ECGProcess.ridges(in), ECGProcess.valleys(in));
+                    }
+                };
+            case "lp":
+            case "hp":
+            case "median":
+            case "integrate":
+            {
+                checkArgs(name, args, 1, 1);
+
+                final String op = name;
+                final int f = Integer.parseInt(args[0]);
+
+                return new Stage()
+                {
+                    @Override
+                    public double[] process(double[] in)
+                    {
+                        switch (op)
+                        {
+                            case "lp": return ECGProcess.lp(in, f);
+                            case "hp": return ECGProcess.hp(in, f);
+                            case "median": return ECGProcess.median(in, f);
+                            default: return ECGProcess.integrate(in, f);
+                        }
+                    }
+                };
+            }
+            case "derivate":
+            case "absolute":
+            case "positive":
+            case "square":
+            {
+                checkArgs(name, args, 0, 0);
+
+                final String op = name;
+
+                return new Stage()
+                {
+                    @Override
+                    public double[] process(double[] in)
+                    {
+                        switch (op)
+                        {
+                            case "derivate": return ECGProcess.derivate(in);
+                            case "absolute": return ECGProcess.absolute(in);
+                            case "positive": return ECGProcess.positive(in);
+                            default: return ECGProcess.square(in);
+                        }
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown stage " + name);
+        }
+    }
+
+    private static void checkArgs(String name, String[] args, int min, int max)
+    {
+        if (args.length < min || args.length > max)
+            throw new IllegalArgumentException("Wrong number of parameters for " + name);
+    }
+
+    private static int parseFlags(String text)
+    {
+        int flags = 0;
+
+        for (String flag : text.split("\\+"))
+        {
+            switch (flag.trim())
+            {
+                case "VALUE": flags |= SELECT_VALUE; break;
+                case "MEAN": flags |= SELECT_MEAN; break;
+                case "RANGE": flags |= SELECT_RANGE; break;
+                case "MAX": flags |= SELECT_MAX; break;
+                case "MAX_MINUS_MEAN": flags |= SELECT_MAX_MINUS_MEAN; break;
+                case "VALUE_MINUS_MIN": flags |= SELECT_VALUE_MINUS_MIN; break;
+                case "MEAN_OR_VALUE": flags |= SELECT_MEAN_OR_VALUE; break;
+                case "VALUE_OUT_OF_RANGE": flags |= SELECT_VALUE_OUT_OF_RANGE; break;
+                case "JUMP": flags |= METHOD_JUMP; break;
+                default:
+                    throw new IllegalArgumentException("Unknown flag " + flag);
+            }
+        }
+
+        return flags;
+    }
+}
@@ -26,7 +26,6 @@ package cat.uab.cephis.mitbih;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.Rectangle;
 import javax.swing.JPanel;
 
 /**
@@ -34,15 +33,8 @@ import javax.swing.JPanel;
  * @author dcr
  */
 public class Plot1D extends javax.swing.JFrame {
-    private double[] data;
-    private double[] data2;
-    private double[] data3;
-    private double dataMax;
-    private double dataMin;
+    private final Plot1DRenderer renderer = new Plot1DRenderer();
     private final Plot1DPanel panel;
-    private int len;
-    private int[] beats;
-    private int skipped;
     
     boolean drawYAxis;
 
@@ -198,8 +190,7 @@ public class Plot1D extends javax.swing.JFrame {
     // End of variables declaration//GEN-END:variables
 
     void setData(double[] chunk, int len) {
-        data = chunk;
-        this.len = len;
+        renderer.setData(chunk, len);
         
         panel.repaint();
     }
@@ -208,23 +199,8 @@ public class Plot1D extends javax.swing.JFrame {
         setData(chunk, chunk.length);
     }
 
-
-    private void findMaxMin(int start, int slen) {
-        dataMax = data[start];
-        dataMin = data[start];
-        
-        for (int i=1; (i < len) && (i < (start + slen)); i++)
-        {
-            if ((start+i) >= data.length)
-                continue;
-            
-            if (data[start+i] > dataMax) dataMax = data[start+i];
-            if (data[start+i] < dataMin) dataMin = data[start+i];
-        }
-    }
-
     void setZoom(double i) {
-        panel.zoom = i;
+        renderer.zoom = i;
     }
 
     void setOffset(int i)
@@ -232,33 +208,29 @@ public class Plot1D extends javax.swing.JFrame {
         if (i < 0)
             return;
         
-        panel.offsetX = i;
+        renderer.offsetX = i;
         panel.repaint();
     }
 
     void setAnnotation(int[] beats) {
-        this.beats = beats;
+        renderer.setAnnotation(beats);
     }
 
     void setData2(double[] ret3) {
-        data2 = ret3;
+        renderer.setData2(ret3);
     }
     
     void setData3(double[] ret3) {
-        data3 = ret3;
+        renderer.setData3(ret3);
     }
 
     void setSkipped(int skipped) {
-        this.skipped = skipped;
+        renderer.setSkipped(skipped);
         
     }
     
     class Plot1DPanel extends JPanel
     {
-        double zoom = 1;
-        private int offsetX;
-	
-
         public Plot1DPanel() 
         {
             super(true);
@@ -273,224 +245,29 @@ public class Plot1D extends javax.swing.JFrame {
          */
         @Override
         protected void paintComponent(Graphics g) {
-
-            int w = this.getWidth();
-            int h = this.getHeight();
-
-            
-            int digitizerScale = 2048;  // 2^11
-            int mVScale = 10;   // (-5, 5) mV
-            int digitizerZero = 1024;
-            int unitsPermV = digitizerScale/mVScale;
-            
-            
-            g.setColor(Color.white);
-            g.fillRect(0, 0, w, h);
-            
-            g.setColor(Color.black);
-            
-            int m = 30;
-
-            double rangeWindowY = h - 3 * m;
-            double rangeDataX = len / zoom;
-            double rangeWindowX = w - 3 * m;
-
-            findMaxMin(offsetX, (int) rangeDataX);
-
-            double rangeDataY = dataMax - dataMin;
-
-            // vertical axis
-            g.drawLine(2*m, m, 2*m, h-2*m);
-            g.drawLine(w-m, m, w-m, h-2*m);
-            
-            // horizontal axis
-            g.drawLine(2*m, h-2*m, w-m, h-2*m);
-            g.drawLine(2*m, m, w-m, m);
-            
-            // delta is number of units of data per pixel
-            double dx = rangeWindowX / rangeDataX;  // pixels/unit
-            double dy = rangeWindowY / rangeDataY;
-            
-            
-            int yAxisSpacing = axisScale((int) (rangeWindowY / (unitsPermV * 5))) * unitsPermV;
-            
-            // draw x axis separators
-            int fs = 360;   // 360 Hz is the sampling freq
-            int xAxisSpacing = axisScale((int) (rangeDataX / (fs * 20))) * fs;
-            for (int i= nextMultiple(offsetX, xAxisSpacing) - offsetX; 
-                    i < rangeDataX; i+= xAxisSpacing)
-            {
-                int x1 = 2*m + (int) (i * dx);
-                int y1 = h -2*m  - m/2;
-                int y2 = h -2*m  + m/2;
-                
-                g.drawLine(x1, y1, x1, y2);
-                
-                DrawUtils.drawCenteredString(g, x1, y2 + m/2, "" + ((skipped+ offsetX + i)/fs) + "");
-//                g.drawString("" + ((skipped+ offsetX + i)/fs) + "", x1, y2);
-            }
-            
-//            // draw y axis separators
-	    if (drawYAxis)
-            for (int i=0; i< (h - 2*m); i+= yAxisSpacing)
-            {
-                int x1 = 2*m - m/2;
-                int x2 = 2*m + m/2;
-                int y1 = h - (2*m + i);
-                
-                g.drawLine(x1, y1, x2, y1);
- 
-                DrawUtils.drawCenteredString(g, x1-m/2, y1, "" + (int)((dataMin + (i/dy)-digitizerZero))/unitsPermV);
-//                g.drawString("" + (int)(dataMin + (i/dy)), x1, y1 );
-            }
-            
-            g.setColor(Color.BLUE);
-            
-            int zeroyInPixels = h - 2*m - (int) ((0 - dataMin) * dy);
-                    
-            // draw data
-            for (int i=1; i < rangeDataX; i++)
-            {
-                if ((i + offsetX) >= len)
-                    break;
-                            
-                int x1 = 2*m + (int) ((i-1) * dx);
-                int x2 = 2*m + (int) (i * dx);
-                int y1 = zeroyInPixels - (int) (data[offsetX + i-1] * dy);
-                int y2 = zeroyInPixels - (int) (data[offsetX + i] * dy);
-                
-                g.drawLine(x1, y1, x2, y2);
-            }
-            
-            
-            // draw beats
-            if (beats != null)
-            {
-                int minIndex = offsetX;
-                int maxIndex = (int) (offsetX + rangeDataX);
-                
-                for (int i=0; i < beats.length; i++)
-                {
-                    int index = beats[i];
-                    
-                    if (index < minIndex)
-                        continue;
-                    if (index >= maxIndex)
-                        break;
-                    
-                    int x1 = 2*m + (int) ((index-offsetX) * dx);
-                    
-                    int y1 = m;
-                    int y2 = h-2*m;
-                    
-                    g.setColor(Color.red);
-                    g.drawLine(x1, y1, x1, y2);
-                }
-            }
-            
-            // draw data 2
-
-            g.setColor(Color.red);
-
-            if (data2 != null)
-            for (int i=1; i < rangeDataX; i++)
-            {
-                if ((i + offsetX) >= len)
-                    break;
-                            
-                int x1 = 2*m + (int) ((i-1) * dx);
-                int x2 = 2*m + (int) (i * dx);
-                int y1 = zeroyInPixels - (int) (data2[offsetX + i-1] * dy);
-                int y2 = zeroyInPixels - (int) (data2[offsetX + i] * dy);
-                
-                g.drawLine(x1, y1, x2, y2);
-            }
-            
-            // draw data 3
-            if (data3 != null)
-            for (int i=1; i < rangeDataX; i++)
-            {
-                if ((i + offsetX) >= len)
-                    break;
-                            
-                int x1 = 2*m + (int) ((i-1) * dx);
-                int x2 = 2*m + (int) (i * dx);
-                int y1 = zeroyInPixels - (int) (data3[offsetX + i-1] * dy);
-                int y2 = zeroyInPixels - (int) (data3[offsetX + i] * dy);
-                
-                g.drawLine(x1, y1, x2, y2);
-            }
+            renderer.drawYAxis = drawYAxis;
+            renderer.paint(g, getWidth(), getHeight());
         }
 
-        
-
         private void moveRight() {
-            int rangeDataX = (int) (len / zoom);
-            
-            offsetX += rangeDataX / 2;
-            
-            if (offsetX >= (len - rangeDataX))
-                offsetX = len - rangeDataX;
-            
+            renderer.moveRight();
             repaint();
         }
 
         private void moveLeft() {
-            int rangeDataX = (int) (len / zoom);
-            
-            offsetX -= rangeDataX / 2;
-            
-            if (offsetX < 0)
-                offsetX = 0;
-            
+            renderer.moveLeft();
             repaint();
         }
 
         private void zoomIn() 
         {
-            zoom *= 1.1;
-            
-            
+            renderer.zoomIn();
             repaint();
         }
         
         private void zoomOut() {
-            zoom /= 1.1;
-            
-            
+            renderer.zoomOut();
             repaint();
         }
-
-        private int axisScale(int d) 
-        {
-            if (d < 5)
-                return 1;
-            
-            if (d < 10)
-                return 5;
-            if (d < 100)
-                return 50;
-            if (d < 1000)
-                return 500;
-            else
-                return 1000;
-        }
-        
-        int nextMultiple(int value, int m)
-        {            
-            while (true)
-            {
-                if ((value % m) == 0)
-                    return value;
-                
-                value++;
-            }
-         
-        }
-        
     }
 }
-
-
-
-        
@@ -0,0 +1,363 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.awt.Color;
+import java.awt.Graphics;
+
+/**
+ * Drawing code of Plot1D.
+ *
+ * It does not depend on a window, so the same plot can be painted on a
+ * Swing panel or on a BufferedImage (see PlotExport) in headless mode.
+ *
+ * @author dcr
+ */
+public class Plot1DRenderer
+{
+    // samples per pixel from which the min/max pyramid is used
+    private static final int SAMPLES_PER_PIXEL = 2;
+
+    private double[] data;
+    private double[] data2;
+    private double[] data3;
+    private MinMaxPyramid pyramid;
+    private MinMaxPyramid pyramid2;
+    private MinMaxPyramid pyramid3;
+    private double dataMax;
+    private double dataMin;
+    private int len;
+    private int[] beats;
+    private int skipped;
+
+    double zoom = 1;
+    int offsetX;
+
+    boolean drawYAxis;
+
+    void setData(double[] chunk, int len) {
+        data = chunk;
+        this.len = len;
+        pyramid = null;
+        pyramid2 = null;
+        pyramid3 = null;
+    }
+
+    void setData(double[] chunk) {
+        setData(chunk, chunk.length);
+    }
+
+    void setData2(double[] ret3) {
+        data2 = ret3;
+        pyramid2 = null;
+    }
+
+    void setData3(double[] ret3) {
+        data3 = ret3;
+        pyramid3 = null;
+    }
+
+    void setAnnotation(int[] beats) {
+        this.beats = beats;
+    }
+
+    void setSkipped(int skipped) {
+        this.skipped = skipped;
+    }
+
+    int getLength() {
+        return len;
+    }
+
+    private void findMaxMin(int start, int slen) {
+        double[] mm = new double[2];
+
+        if (getPyramid(0).getMaxMin(start, start + slen, mm))
+        {
+            dataMax = mm[0];
+            dataMin = mm[1];
+        }
+    }
+
+    /**
+     * The min/max pyramids are built the first time a signal is painted
+     * @param i 0 for data, 1 for data2, 2 for data3
+     * @return
+     */
+    private MinMaxPyramid getPyramid(int i)
+    {
+        switch (i)
+        {
+            case 0:
+                if (pyramid == null) pyramid = new MinMaxPyramid(data, len);
+                return pyramid;
+            case 1:
+                if (pyramid2 == null) pyramid2 = new MinMaxPyramid(data2, len);
+                return pyramid2;
+            default:
+                if (pyramid3 == null) pyramid3 = new MinMaxPyramid(data3, len);
+                return pyramid3;
+        }
+    }
+
+    /**
+     * Paint the plot
+     * @param g
+     * @param w width in pixels
+     * @param h height in pixels
+     */
+    void paint(Graphics g, int w, int h) {
+
+        int digitizerScale = 2048;  // 2^11
+        int mVScale = 10;   // (-5, 5) mV
+        int digitizerZero = 1024;
+        int unitsPermV = digitizerScale/mVScale;
+
+
+        g.setColor(Color.white);
+        g.fillRect(0, 0, w, h);
+
+        g.setColor(Color.black);
+
+        int m = 30;
+
+        double rangeWindowY = h - 3 * m;
+        double rangeDataX = len / zoom;
+        double rangeWindowX = w - 3 * m;
+
+        findMaxMin(offsetX, (int) rangeDataX);
+
+        double rangeDataY = dataMax - dataMin;
+
+        // vertical axis
+        g.drawLine(2*m, m, 2*m, h-2*m);
+        g.drawLine(w-m, m, w-m, h-2*m);
+
+        // horizontal axis
+        g.drawLine(2*m, h-2*m, w-m, h-2*m);
+        g.drawLine(2*m, m, w-m, m);
+
+        // delta is number of units of data per pixel
+        double dx = rangeWindowX / rangeDataX;  // pixels/unit
+        double dy = rangeWindowY / rangeDataY;
+
+
+        int yAxisSpacing = axisScale((int) (rangeWindowY / (unitsPermV * 5))) * unitsPermV;
+
+        // draw x axis separators
+        int fs = 360;   // 360 Hz is the sampling freq
+        int xAxisSpacing = axisScale((int) (rangeDataX / (fs * 20))) * fs;
+        for (int i= nextMultiple(offsetX, xAxisSpacing) - offsetX;
+                i < rangeDataX; i+= xAxisSpacing)
+        {
+            int x1 = 2*m + (int) (i * dx);
+            int y1 = h -2*m  - m/2;
+            int y2 = h -2*m  + m/2;
+
+            g.drawLine(x1, y1, x1, y2);
+
+            DrawUtils.drawCenteredString(g, x1, y2 + m/2, "" + ((skipped+ offsetX + i)/fs) + "");
+        }
+
+        // draw y axis separators
+        if (drawYAxis)
+        for (int i=0; i< (h - 2*m); i+= yAxisSpacing)
+        {
+            int x1 = 2*m - m/2;
+            int x2 = 2*m + m/2;
+            int y1 = h - (2*m + i);
+
+            g.drawLine(x1, y1, x2, y1);
+
+            DrawUtils.drawCenteredString(g, x1-m/2, y1, "" + (int)((dataMin + (i/dy)-digitizerZero))/unitsPermV);
+        }
+
+        g.setColor(Color.BLUE);
+
+        int zeroyInPixels = h - 2*m - (int) ((0 - dataMin) * dy);
+
+        // draw data
+        drawSignal(g, 0, 2*m, zeroyInPixels, rangeDataX, rangeWindowX, dx, dy);
+
+
+        // draw beats
+        if (beats != null)
+        {
+            int minIndex = offsetX;
+            int maxIndex = (int) (offsetX + rangeDataX);
+
+            for (int i=0; i < beats.length; i++)
+            {
+                int index = beats[i];
+
+                if (index < minIndex)
+                    continue;
+                if (index >= maxIndex)
+                    break;
+
+                int x1 = 2*m + (int) ((index-offsetX) * dx);
+
+                int y1 = m;
+                int y2 = h-2*m;
+
+                g.setColor(Color.red);
+                g.drawLine(x1, y1, x1, y2);
+            }
+        }
+
+        // draw data 2
+
+        g.setColor(Color.red);
+
+        if (data2 != null)
+            drawSignal(g, 1, 2*m, zeroyInPixels, rangeDataX, rangeWindowX, dx, dy);
+
+        // draw data 3
+        if (data3 != null)
+            drawSignal(g, 2, 2*m, zeroyInPixels, rangeDataX, rangeWindowX, dx, dy);
+    }
+
+    /**
+     * Draw the visible part of a signal.
+     * When zoomed in every sample is joined to the next one. When there
+     * are several samples per pixel a vertical segment from the minimum
+     * to the maximum of the samples of every pixel column is drawn, so
+     * the number of segments does not depend on the zoom.
+     *
+     * @param g
+     * @param signal 0 for data, 1 for data2, 2 for data3
+     * @param x0 position of the first sample in pixels
+     * @param zeroyInPixels
+     * @param rangeDataX visible samples
+     * @param rangeWindowX visible pixels
+     * @param dx pixels per sample
+     * @param dy pixels per unit
+     */
+    private void drawSignal(Graphics g, int signal, int x0, int zeroyInPixels,
+            double rangeDataX, double rangeWindowX, double dx, double dy)
+    {
+        double[] d = (signal == 0)? data : (signal == 1)? data2 : data3;
+
+        if (dx * SAMPLES_PER_PIXEL >= 1)
+        {
+            for (int i=1; i < rangeDataX; i++)
+            {
+                if ((i + offsetX) >= len)
+                    break;
+
+                int x1 = x0 + (int) ((i-1) * dx);
+                int x2 = x0 + (int) (i * dx);
+                int y1 = zeroyInPixels - (int) (d[offsetX + i-1] * dy);
+                int y2 = zeroyInPixels - (int) (d[offsetX + i] * dy);
+
+                g.drawLine(x1, y1, x2, y2);
+            }
+
+            return;
+        }
+
+        MinMaxPyramid p = getPyramid(signal);
+        double[] mm = new double[2];
+        int lastMax = 0;
+        int lastMin = 0;
+
+        for (int x=0; x < rangeWindowX; x++)
+        {
+            int from = offsetX + (int) (x / dx);
+            int to = offsetX + (int) Math.min((x + 1) / dx, rangeDataX);
+
+            if (!p.getMaxMin(from, to, mm))
+                break;
+
+            int y1 = zeroyInPixels - (int) (mm[0] * dy);
+            int y2 = zeroyInPixels - (int) (mm[1] * dy);
+
+            // join with the previous column
+            if (x > 0)
+            {
+                if (y2 < lastMax) y2 = lastMax;
+                if (y1 > lastMin) y1 = lastMin;
+            }
+
+            g.drawLine(x0 + x, y1, x0 + x, y2);
+
+            lastMax = y1;
+            lastMin = y2;
+        }
+    }
+
+    void moveRight() {
+        int rangeDataX = (int) (len / zoom);
+
+        offsetX += rangeDataX / 2;
+
+        if (offsetX >= (len - rangeDataX))
+            offsetX = len - rangeDataX;
+    }
+
+    void moveLeft() {
+        int rangeDataX = (int) (len / zoom);
+
+        offsetX -= rangeDataX / 2;
+
+        if (offsetX < 0)
+            offsetX = 0;
+    }
+
+    void zoomIn()
+    {
+        zoom *= 1.1;
+    }
+
+    void zoomOut() {
+        zoom /= 1.1;
+    }
+
+    private int axisScale(int d)
+    {
+        if (d < 5)
+            return 1;
+
+        if (d < 10)
+            return 5;
+        if (d < 100)
+            return 50;
+        if (d < 1000)
+            return 500;
+        else
+            return 1000;
+    }
+
+    int nextMultiple(int value, int m)
+    {
+        while (true)
+        {
+            if ((value % m) == 0)
+                return value;
+
+            value++;
+        }
+
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/**
+ * Headless export of the plots of method #5 around every error.
+ *
+ * For every false positive and false negative of a record a PNG strip is
+ * written with the signals that testSingle shows in windows for the method #5
+ * (source, HP, range, t2 and the filtered ridges with the threshold). The
+ * plots are painted with the same code as Plot1D and PlotDiscrete1D on a
+ * BufferedImage, so no window is opened.
+ *
+ * Files are named <set>_FP_<sample>.png and <set>_FN_<sample>.png
+ *
+ * @author dcr
+ */
+public class PlotExport
+{
+    public static final int WIDTH = 1000;
+    public static final int PLOT_HEIGHT = 250;
+
+    // samples shown in every strip, 2 seconds at each side of the error
+    public static final int WINDOW = 4 * 360;
+
+    /**
+     * @param args output directory and number of threads
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        File dir = new File((args.length > 0)? args[0] : "errors");
+        int threads = (args.length > 1)? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        exportSet(ECGProcess.WHOLE_SET, dir, threads);
+    }
+
+    /**
+     * Export the errors of several records.
+     * Records are processed in parallel, the summary is printed in the order of the sets
+     * @param sets
+     * @param dir output directory
+     * @param threads number of records processed in parallel
+     * @throws IOException
+     */
+    public static void exportSet(int[] sets, final File dir, int threads) throws IOException
+    {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+
+        try
+        {
+            List<Future<int[]>> exports = new ArrayList<Future<int[]>>();
+
+            for (int i=0; i < sets.length; i++)
+            {
+                final String set = "" + sets[i];
+
+                exports.add(executor.submit(new Callable<int[]>()
+                {
+                    @Override
+                    public int[] call() throws IOException
+                    {
+                        return exportRecord(set, dir);
+                    }
+                }));
+            }
+
+            int tfp = 0;
+            int tfn = 0;
+
+            System.out.println("Set;FP;FN;");
+
+            for (int i=0; i < sets.length; i++)
+            {
+                int[] errors = exports.get(i).get();
+
+                System.out.println("" + sets[i] + ";" + errors[0] + ";" + errors[1] + ";");
+
+                tfp += errors[0];
+                tfn += errors[1];
+            }
+
+            System.out.println("Total;" + tfp + ";" + tfn + ";");
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+
+            throw new RuntimeException(ex.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Run method #5 on a record and export a strip around every error
+     * @param set
+     * @param dir output directory
+     * @return the number of false positives and false negatives
+     * @throws IOException
+     */
+    public static int[] exportRecord(String set, File dir) throws IOException
+    {
+        double[] chunk0 = ECGProcess.readRecord(set, 0)[0];
+        int[] beats = RecordCache.shared().getBeats(set);
+
+        QRSDetector.Trace trace = new QRSDetector.Trace(chunk0.length);
+
+        int[] detected = ECGProcess.detectM5(chunk0, trace);
+        BeatMatch match = ECGProcess.matchBeats(detected, beats);
+        int[][] errors = {match.getPositions(BeatMatch.FP), match.getPositions(BeatMatch.FN)};
+
+        String[] titles = {"Source", "HP", "Range", "t2"};
+        Plot1DRenderer[] plots = new Plot1DRenderer[titles.length];
+        double[][] data = {chunk0, trace.hpData, trace.range, trace.t2};
+
+        for (int i=0; i < plots.length; i++)
+        {
+            plots[i] = new Plot1DRenderer();
+            plots[i].setData(data[i]);
+            plots[i].setAnnotation(beats);
+        }
+
+        PlotDiscrete1DRenderer ridges = new PlotDiscrete1DRenderer();
+        ridges.setData(trace.filteredRidges);
+        ridges.setData2(trace.valleys);
+        ridges.setData3(trace.maxThreshold);
+        ridges.setAnnotation(beats);
+        ridges.setDetected(detected);
+        ridges.drawValleys = false;
+
+        for (int k=0; k < errors.length; k++)
+        {
+            String type = (k == 0)? "FP" : "FN";
+
+            for (int error : errors[k])
+            {
+                BufferedImage image = drawStrip(set + " " + type + " ", titles, plots, ridges, error);
+
+                ImageIO.write(image, "png", new File(dir, set + "_" + type + "_" + error + ".png"));
+            }
+        }
+
+        return new int[]{errors[0].length, errors[1].length};
+    }
+
+    /**
+     * Paint the plots one below the other, centered at the sample focus
+     * @param name prefix of the titles
+     * @param titles
+     * @param plots
+     * @param ridges
+     * @param focus
+     * @return
+     */
+    static BufferedImage drawStrip(String name, String[] titles, Plot1DRenderer[] plots, PlotDiscrete1DRenderer ridges, int focus)
+    {
+        int len = plots[0].getLength();
+        int offset = Math.max(0, Math.min(focus - WINDOW / 2, len - WINDOW));
+
+        BufferedImage image = new BufferedImage(WIDTH, PLOT_HEIGHT * (plots.length + 1), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+
+        try
+        {
+            for (int i=0; i <= plots.length; i++)
+            {
+                Graphics gp = g.create(0, i * PLOT_HEIGHT, WIDTH, PLOT_HEIGHT);
+
+                if (i < plots.length)
+                {
+                    plots[i].zoom = (double) len / WINDOW;
+                    plots[i].offsetX = offset;
+                    plots[i].paint(gp, WIDTH, PLOT_HEIGHT);
+                }
+                else
+                {
+                    ridges.zoom = (double) len / WINDOW;
+                    ridges.offsetX = offset;
+                    ridges.paint(gp, WIDTH, PLOT_HEIGHT);
+                }
+
+                gp.setColor(Color.black);
+                gp.drawString(name + ((i < plots.length)? titles[i] : "Filtered Ridges"), 5, 20);
+                gp.dispose();
+            }
+        }
+        finally
+        {
+            g.dispose();
+        }
+
+        return image;
+    }
+}
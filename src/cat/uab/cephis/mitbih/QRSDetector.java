@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+/**
+ * Real-time version of the method #5 (Pipeline.M5).
+ *
+ * Samples are received one at a time and the detected beats are reported
+ * to the listener as soon as they are known. The chain is the same as in
+ * Pipeline.M5: MaMeMi filter (value and range), reduceRange, triangleHeight,
+ * ridges / valleys, mixRidgesValleys and the adaptive threshold detector.
+ *
+ * triangleHeight needs f samples of look-ahead (see TriangleHeightFilter).
+ * The memory used does not depend on the length of the signal. The
+ * intermediate signals are only stored when a Trace is given.
+ *
+ * @author dcr
+ */
+public class QRSDetector
+{
+    /**
+     * Intermediate signals of the detector, the same arrays computed by Pipeline.M5
+     */
+    public static class Trace
+    {
+        public final double[] hpData;
+        public final double[] range;
+        public final double[] squared;
+        public final double[] t2;
+        public final double[] ridges;
+        public final double[] valleys;
+        public final double[] filteredRidges;
+        public final double[] maxThreshold;
+
+        public Trace(int length)
+        {
+            hpData = new double[length];
+            range = new double[length];
+            squared = new double[length];
+            t2 = new double[length];
+            ridges = new double[length];
+            valleys = new double[length];
+            filteredRidges = new double[length];
+            maxThreshold = new double[length];
+        }
+    }
+
+    private final TriangleHeightFilter front;
+    private final RidgeThresholdDetector detector;
+
+    // ridges and valleys state
+    private int triangles = 0;
+    private double lastx;
+    private int ridgeState = 0;
+    private int valleyState = 0;
+
+    private Trace trace;
+
+    /**
+     * Detector with the parameters of Pipeline.M5
+     * @param listener
+     */
+    public QRSDetector(RidgeThresholdDetector.BeatListener listener)
+    {
+        this(2, 2, 15, 0.3, 90, 700, .85, listener);
+    }
+
+    /**
+     *
+     * @param delta MaMeMi filter delta
+     * @param deltaFactor MaMeMi filter delta factor
+     * @param f triangleHeight distance
+     * @param posFactor
+     * @param minGap
+     * @param maxGap
+     * @param maxRateVariability
+     * @param listener
+     */
+    public QRSDetector(double delta, double deltaFactor, int f, double posFactor, int minGap, int maxGap, double maxRateVariability,
+            RidgeThresholdDetector.BeatListener listener)
+    {
+        this.front = new TriangleHeightFilter(delta, deltaFactor, f);
+        this.detector = new RidgeThresholdDetector(posFactor, minGap, maxGap, maxRateVariability, listener);
+    }
+
+    /**
+     * Store the intermediate signals into the trace
+     * @param trace must be as long as the signal
+     */
+    public void setTrace(Trace trace)
+    {
+        this.trace = trace;
+        detector.setThresholdTrace(trace.maxThreshold);
+    }
+
+    /**
+     * Process the next sample of the signal.
+     * @param sample
+     */
+    public void put(double sample)
+    {
+        boolean ready = front.put(sample);
+
+        if (trace != null)
+        {
+            int i = front.getCount() - 1;
+
+            trace.hpData[i] = front.getValue();
+            trace.range[i] = front.getRange();
+            trace.squared[i] = front.getReduced();
+        }
+
+        if (ready)
+            putTriangle(front.getTriangle());
+    }
+
+    public void put(double[] samples, int offset, int len)
+    {
+        for (int i=0; i < len; i++)
+            put(samples[offset + i]);
+    }
+
+    /**
+     * Notify the end of the signal.
+     * The last f samples have no triangle height, like in the batch version
+     */
+    public void flush()
+    {
+        while (triangles < front.getCount())
+            putTriangle(0);
+
+        detector.flush();
+    }
+
+    private void putTriangle(double x)
+    {
+        double ridge = 0;
+        double valley = 0;
+
+        if (trace != null)
+            trace.t2[triangles] = x;
+
+        if (triangles++ == 0)
+        {
+            lastx = x;
+            detector.put(0);
+            return;
+        }
+
+        switch (ridgeState)
+        {
+            case 0: if (x > lastx) ridgeState = 1; break;   // up
+            case 1: if (x < lastx)
+                    {
+                        // down
+                        ridgeState = -1;
+                        ridge = lastx;
+                    }
+                    break;
+            case -1:
+                    ridgeState = 0;
+                    break;
+        }
+
+        switch (valleyState)
+        {
+            case 0: if (x < lastx) valleyState = 1; break;   // down
+            case 1: if (x > lastx)
+                    {
+                        // up
+                        valleyState = -1;
+                        valley = lastx;
+                    }
+                    break;
+            case -1:
+                    valleyState = 0;
+                    break;
+        }
+
+        lastx = x;
+
+        // mixRidgesValleys
+        double mixed = (ridge > 0)? ridge : (valley < 0)? -valley : 0;
+
+        if (trace != null)
+        {
+            trace.ridges[triangles-1] = ridge;
+            trace.valleys[triangles-1] = valley;
+            trace.filteredRidges[triangles-1] = mixed;
+        }
+
+        detector.put(mixed);
+    }
+}
@@ -0,0 +1,355 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of decoded records.
+ *
+ * The samples of both channels (as short, the DAT file has 12 bit samples)
+ * and the beats of the annotations are kept in memory, so repeated
+ * evaluations do not read and decode the files again. The least recently
+ * used entries are evicted when the memory budget is exceeded.
+ *
+ * Optionally, decoded entries are also stored as binary snapshots in a
+ * directory (system property mitbih.snapshots or setSnapshotDir). A
+ * snapshot is used instead of the original file while it is newer.
+ *
+ * The arrays returned are shared, they must not be modified.
+ *
+ * @author dcr
+ */
+public class RecordCache
+{
+    private static final int SNAPSHOT_MAGIC = 0x4D4D5243;   // "MMRC"
+    private static final int SNAPSHOT_SAMPLES = 1;
+    private static final int SNAPSHOT_BEATS = 2;
+
+    private static final RecordCache shared = new RecordCache(512L * 1024 * 1024,
+            (System.getProperty("mitbih.snapshots") != null)? new File(System.getProperty("mitbih.snapshots")) : null);
+
+    /**
+     * Samples of both channels of a record
+     */
+    public static class Samples
+    {
+        public final short[] ch0;
+        public final short[] ch1;
+
+        Samples(short[] ch0, short[] ch1)
+        {
+            this.ch0 = ch0;
+            this.ch1 = ch1;
+        }
+    }
+
+    // entries by file name, in access order
+    private final LinkedHashMap<String, Object> entries = new LinkedHashMap<String, Object>(16, 0.75f, true);
+    private long budget;
+    private long size = 0;
+    private File snapshotDir;
+
+    /**
+     * @param budget maximum number of bytes of the cached arrays
+     * @param snapshotDir directory of the snapshots, null to disable them
+     */
+    public RecordCache(long budget, File snapshotDir)
+    {
+        this.budget = budget;
+        this.snapshotDir = snapshotDir;
+    }
+
+    /**
+     * @return the cache shared by the whole process (512 MB)
+     */
+    public static RecordCache shared()
+    {
+        return shared;
+    }
+
+    public synchronized void setBudget(long budget)
+    {
+        this.budget = budget;
+        evict();
+    }
+
+    public synchronized void setSnapshotDir(File snapshotDir)
+    {
+        this.snapshotDir = snapshotDir;
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * @param set record name (e.g. "100")
+     * @return all the samples of the DAT file of the record in ECGProcess.dir
+     * @throws IOException
+     */
+    public Samples getSamples(String set) throws IOException
+    {
+        String name = set + ".dat";
+        Samples samples = (Samples) get(name);
+
+        if (samples != null)
+            return samples;
+
+        // decoded out of the lock, so different records load in parallel
+        File file = new File(ECGProcess.dir, name);
+        File snapshot = snapshot(file);
+
+        if (snapshot != null && snapshot.lastModified() >= file.lastModified() && file.exists())
+        {
+            ByteBuffer buffer = readSnapshot(snapshot, SNAPSHOT_SAMPLES);
+            int n = buffer.getInt();
+            short[] ch0 = new short[n];
+            short[] ch1 = new short[n];
+
+            buffer.asShortBuffer().get(ch0);
+            buffer.position(buffer.position() + 2 * n);
+            buffer.asShortBuffer().get(ch1);
+
+            samples = new Samples(ch0, ch1);
+        }
+        else
+        {
+            DatFile dat = new DatFile(file);
+            int n = dat.getSamples();
+
+            samples = new Samples(new short[n], new short[n]);
+            dat.read(0, samples.ch0, samples.ch1, 0, n);
+
+            if (snapshot != null)
+            {
+                ByteBuffer buffer = newSnapshot(SNAPSHOT_SAMPLES, 4 + 4 * n);
+
+                buffer.putInt(n);
+                buffer.asShortBuffer().put(samples.ch0);
+                buffer.position(buffer.position() + 2 * n);
+                buffer.asShortBuffer().put(samples.ch1);
+
+                writeSnapshot(snapshot, buffer);
+            }
+        }
+
+        put(name, samples, 4L * samples.ch0.length);
+
+        return samples;
+    }
+
+    /**
+     * @param set record name (e.g. "100")
+     * @return the beats annotated in the ATR file of the record in ECGProcess.dir (AtrReader.getBeats)
+     * @throws IOException
+     */
+    public int[] getBeats(String set) throws IOException
+    {
+        String name = set + ".atr";
+        int[] beats = (int[]) get(name);
+
+        if (beats != null)
+            return beats;
+
+        File file = new File(ECGProcess.dir, name);
+        File snapshot = snapshot(file);
+
+        if (snapshot != null && snapshot.lastModified() >= file.lastModified() && file.exists())
+        {
+            ByteBuffer buffer = readSnapshot(snapshot, SNAPSHOT_BEATS);
+
+            beats = new int[buffer.getInt()];
+            buffer.asIntBuffer().get(beats);
+        }
+        else
+        {
+            beats = getAnnotations(set).getTimes();
+
+            if (snapshot != null)
+            {
+                ByteBuffer buffer = newSnapshot(SNAPSHOT_BEATS, 4 + 4 * beats.length);
+
+                buffer.putInt(beats.length);
+                buffer.asIntBuffer().put(beats);
+
+                writeSnapshot(snapshot, buffer);
+            }
+        }
+
+        put(name, beats, 4L * beats.length);
+
+        return beats;
+    }
+
+    /**
+     * @param set record name (e.g. "100")
+     * @return the beat annotations of the record in ECGProcess.dir, with their types (AtrReader.getAnnotations)
+     * @throws IOException
+     */
+    public AnnotationTable getAnnotations(String set) throws IOException
+    {
+        String name = set + ".atr.table";
+        AnnotationTable annotations = (AnnotationTable) get(name);
+
+        if (annotations != null)
+            return annotations;
+
+        annotations = new AtrReader(new File(ECGProcess.dir, set + ".atr"), 0).getAnnotations();
+
+        put(name, annotations, annotations.getBytes());
+
+        return annotations;
+    }
+
+    /**
+     * @param set record name
+     * @param v
+     * @return the beats after the sample v, relative to v (as AtrReader.getBeatsAfter)
+     * @throws IOException
+     */
+    public int[] getBeatsAfter(String set, int v) throws IOException
+    {
+        int[] beats = getBeats(set);
+        int first = 0;
+
+        while (first < beats.length && beats[first] <= v)
+            first++;
+
+        int[] ret = new int[beats.length - first];
+
+        for (int i=0; i < ret.length; i++)
+            ret[i] = beats[first + i] - v;
+
+        return ret;
+    }
+
+    private synchronized Object get(String name)
+    {
+        return entries.get(name);
+    }
+
+    private synchronized void put(String name, Object value, long bytes)
+    {
+        if (entries.containsKey(name))
+            return;
+
+        entries.put(name, value);
+        size += bytes;
+
+        evict();
+    }
+
+    private void evict()
+    {
+        Iterator<Map.Entry<String, Object>> it = entries.entrySet().iterator();
+
+        // the last entry is always kept
+        while (size > budget && entries.size() > 1)
+        {
+            Object value = it.next().getValue();
+
+            if (value instanceof Samples)
+                size -= 4L * ((Samples) value).ch0.length;
+            else if (value instanceof AnnotationTable)
+                size -= ((AnnotationTable) value).getBytes();
+            else
+                size -= 4L * ((int[]) value).length;
+            it.remove();
+        }
+    }
+
+    private synchronized File snapshot(File file)
+    {
+        if (snapshotDir == null)
+            return null;
+
+        return new File(snapshotDir, file.getName() + ".snapshot");
+    }
+
+    private static ByteBuffer newSnapshot(int type, int length)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + length).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putInt(type);
+
+        return buffer;
+    }
+
+    private static ByteBuffer readSnapshot(File snapshot, int type) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(snapshot, "r");
+                FileChannel channel = raf.getChannel())
+        {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+
+            buffer.flip();
+
+            if (buffer.remaining() < 12 || buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != type)
+                throw new IOException("Invalid snapshot " + snapshot);
+
+            return buffer;
+        }
+    }
+
+    private static void writeSnapshot(File snapshot, ByteBuffer buffer) throws IOException
+    {
+        snapshot.getParentFile().mkdirs();
+
+        // written to a temporary file, so a partial snapshot is never used
+        File tmp = new File(snapshot.getPath() + ".tmp" + Thread.currentThread().getId());
+
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+                FileChannel channel = raf.getChannel())
+        {
+            buffer.rewind();
+
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+
+            raf.setLength(buffer.capacity());
+        }
+
+        if (!tmp.renameTo(snapshot))
+        {
+            snapshot.delete();
+
+            if (!tmp.renameTo(snapshot))
+                throw new IOException("Cannot write snapshot " + snapshot);
+        }
+    }
+}
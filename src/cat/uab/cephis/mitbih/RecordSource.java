@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.io.IOException;
+
+/**
+ * Source of the samples of a two channel record, read in chunks.
+ * Records of any length can be processed with a constant amount of memory.
+ *
+ * @author dcr
+ */
+public interface RecordSource
+{
+    /**
+     * Read the next samples of both channels
+     * @param ch0 receives channel 0, can be null
+     * @param ch1 receives channel 1, can be null
+     * @param offset position of the arrays where the first sample is written
+     * @param len maximum number of samples to read
+     * @return the number of samples read, -1 at the end of the record
+     * @throws IOException
+     */
+    int read(double[] ch0, double[] ch1, int offset, int len) throws IOException;
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+/**
+ * Adaptive threshold of the method #5 (ECGProcess.detectRidgesAndValleys).
+ *
+ * Ridges are received one sample at a time. A detected beat can still be
+ * replaced by a higher ridge during the following minGap samples, so beats
+ * are reported to the listener once they cannot change anymore.
+ * The initial threshold is computed from the first maxGap samples, so the
+ * first beats are reported after maxGap samples have been received.
+ *
+ * The state is bounded: the last 5 beat amplitudes, the noise maximum and
+ * the first maxGap ridges during the start up.
+ *
+ * @author dcr
+ */
+public class RidgeThresholdDetector
+{
+    public interface BeatListener
+    {
+        void beat(int index);
+    }
+
+    private static final int BEATS_AVERAGED = 5;
+    private static final int NOISE_MIN_GAP = 40;
+
+    private final double posFactor;
+    private final int minGap;
+    private final int maxGap;
+    private final double maxRateVariability;
+    private final BeatListener listener;
+
+    // ridges received before the initial threshold is known
+    private double[] startup;
+    private int count = 0;
+
+    private double posThreshold;
+    private double preNoiseThreshold;
+    private int gap;
+
+    private double[] thresholdTrace;
+
+    private final double[] beats = new double[BEATS_AVERAGED];
+    private int beatsCount = 0;
+    private int beatsHead = 0;
+
+    private int noiseCount = 0;
+    private double noiseMax;
+
+    private int events = 0;
+    private int lastEvent = -1;
+    private int prevEvent = -1;
+    private boolean pending = false;
+
+    /**
+     *
+     * @param posFactor
+     * @param minGap minimum gap between beats
+     * @param maxGap when no beat is found during maxGap samples the threshold is restored
+     * @param maxRateVariability
+     * @param listener receives the index of the detected beats
+     */
+    public RidgeThresholdDetector(double posFactor, int minGap, int maxGap, double maxRateVariability, BeatListener listener)
+    {
+        this.posFactor = posFactor;
+        this.minGap = minGap;
+        this.maxGap = maxGap;
+        this.maxRateVariability = maxRateVariability;
+        this.listener = listener;
+
+        startup = new double[maxGap];
+        gap = minGap;
+    }
+
+    /**
+     * Process the next ridge value (the output of mixRidgesValleys)
+     * @param r
+     */
+    public void put(double r)
+    {
+        if (startup != null)
+        {
+            startup[count++] = r;
+
+            if (count == maxGap)
+                start();
+
+            return;
+        }
+
+        step(r, count++);
+    }
+
+    /**
+     * Notify the end of the signal, the pending beat (if any) is reported
+     */
+    public void flush()
+    {
+        if (startup != null && count > 0)
+            start();
+
+        if (pending)
+        {
+            pending = false;
+            listener.beat(lastEvent);
+        }
+    }
+
+    /**
+     * Record the threshold used for every ridge (for debugging)
+     * @param trace array as long as the signal
+     */
+    public void setThresholdTrace(double[] trace)
+    {
+        this.thresholdTrace = trace;
+    }
+
+    private void start()
+    {
+        double[] initial = startup;
+        int n = count;
+
+        double max = initial[0];
+
+        for (int j=0; j < n; j++)
+            if (initial[j] > max) max = initial[j];
+
+        posThreshold = max * posFactor;
+        preNoiseThreshold = posThreshold;
+
+        startup = null;
+
+        for (int i=0; i < n; i++)
+            step(initial[i], i);
+    }
+
+    private void step(double r, int i)
+    {
+        gap++;
+
+        if (pending && gap >= minGap)
+        {
+            // the last beat cannot be replaced anymore
+            pending = false;
+            listener.beat(lastEvent);
+        }
+
+        if (thresholdTrace != null)
+            thresholdTrace[i] = posThreshold;
+
+        if (gap < minGap)
+        {
+            if (beatsCount > 0)
+            {
+                double lastRidge = beats[(beatsHead + beatsCount - 1) % BEATS_AVERAGED];
+
+                // no ridge can be detected during the gap
+                if (r > lastRidge)
+                {
+                    // this is higher, take this one
+                    beats[(beatsHead + beatsCount - 1) % BEATS_AVERAGED] = r;
+                    lastEvent = i;
+                    gap = 0;
+                    posThreshold = getBeatsMean() * posFactor;
+                    noiseCount = 0;
+                    preNoiseThreshold = posThreshold;
+                }
+                else if ((r > 0) && (gap > NOISE_MIN_GAP))
+                {
+                    if (noiseCount == 0) preNoiseThreshold = posThreshold;
+                    addNoise(r);
+                }
+            }
+
+            return;
+        }
+
+        if (gap > maxGap)
+        {
+            noiseCount = 0;
+            posThreshold = preNoiseThreshold;
+        }
+
+        if (r > posThreshold)
+        {
+            if ((events > 2) && (gap < (lastEvent - prevEvent) * (1-maxRateVariability)))
+            {
+                // not in possible beat area, so noise
+                if (noiseCount == 0) preNoiseThreshold = posThreshold;
+                addNoise(r);
+            }
+            else if ((noiseCount > 1) && (r < Math.min(preNoiseThreshold/posFactor-preNoiseThreshold, noiseMax + preNoiseThreshold)))
+            {
+                // this is noise
+                addNoise(r);
+            }
+            else
+            {
+                // consider it as a new beat
+                prevEvent = lastEvent;
+                lastEvent = i;
+                events++;
+                pending = true;
+                addBeat(r);
+
+                gap = 0;
+
+                // calculate the new threshold
+                posThreshold = getBeatsMean() * posFactor;
+                noiseCount = 0;
+            }
+        }
+    }
+
+    private void addNoise(double r)
+    {
+        if (noiseCount == 0 || r > noiseMax)
+            noiseMax = r;
+
+        noiseCount++;
+    }
+
+    private void addBeat(double r)
+    {
+        if (beatsCount < BEATS_AVERAGED)
+        {
+            beats[(beatsHead + beatsCount) % BEATS_AVERAGED] = r;
+            beatsCount++;
+        }
+        else
+        {
+            beats[beatsHead] = r;
+            beatsHead = (beatsHead + 1) % BEATS_AVERAGED;
+        }
+    }
+
+    /**
+     * The mean is accumulated from the oldest to the newest beat, as ArrayUtils.getMean
+     * @return
+     */
+    private double getBeatsMean()
+    {
+        double acum = 0;
+
+        for (int k=0; k < beatsCount; k++)
+            acum += beats[(beatsHead + k) % BEATS_AVERAGED];
+
+        return acum / beatsCount;
+    }
+}
@@ -0,0 +1,402 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window operators in O(n), independent of the window size.
+ *
+ * Sums are kept as running sums (add the sample that enters the window,
+ * subtract the one that leaves). Minimum and maximum use a monotonic
+ * deque of indices, and the median two heaps with the lower and the upper
+ * half of the window.
+ *
+ * Windows are clipped at the borders of the signal.
+ *
+ * @author dcr
+ */
+public class SlidingWindow
+{
+    /**
+     * Sum of in[i-f .. i+f], samples out of the signal count as in[0]
+     * (as ECGProcess.integrate)
+     * @param in
+     * @param f
+     * @return
+     */
+    public static double[] sum(double[] in, int f)
+    {
+        int n = in.length;
+        double[] ret = new double[n];
+
+        if (n == 0)
+            return ret;
+
+        double sum = 0;
+
+        for (int k=-f; k <= f; k++)
+            sum += valueOrFirst(in, k);
+
+        for (int i=0; i < n; i++)
+        {
+            if (i > 0)
+                sum += valueOrFirst(in, i+f) - valueOrFirst(in, i-f-1);
+
+            ret[i] = sum;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Mean of in[i-f .. i+f] (clipped)
+     * @param in
+     * @param f
+     * @return
+     */
+    public static double[] mean(double[] in, int f)
+    {
+        int n = in.length;
+        double[] ret = new double[n];
+
+        double sum = 0;
+        int count = 0;
+
+        for (int k=0; k < Math.min(f, n); k++)
+        {
+            sum += in[k];
+            count++;
+        }
+
+        for (int i=0; i < n; i++)
+        {
+            int enter = i + f;
+            int leave = i - f - 1;
+
+            if (enter < n)
+            {
+                sum += in[enter];
+                count++;
+            }
+
+            if (leave >= 0)
+            {
+                sum -= in[leave];
+                count--;
+            }
+
+            ret[i] = sum / count;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Minimum of in[i+from .. i+to] (clipped), +Infinity if the window is
+     * out of the signal
+     * @param in
+     * @param from
+     * @param to
+     * @return
+     */
+    public static double[] min(double[] in, int from, int to)
+    {
+        return extreme(in, from, to, false);
+    }
+
+    /**
+     * Maximum of in[i+from .. i+to] (clipped), -Infinity if the window is
+     * out of the signal
+     * @param in
+     * @param from
+     * @param to
+     * @return
+     */
+    public static double[] max(double[] in, int from, int to)
+    {
+        return extreme(in, from, to, true);
+    }
+
+    /**
+     * Median of in[i-f .. i+f] (clipped). For an even number of samples
+     * the upper one is selected.
+     * @param in
+     * @param f
+     * @return
+     */
+    public static double[] median(double[] in, int f)
+    {
+        int n = in.length;
+        double[] ret = new double[n];
+
+        int w = 2*f+1;
+
+        // samples of the window, a sample j is kept in the slot j % w
+        double[] values = new double[w];
+
+        // lower half (max at the top) and upper half (min at the top)
+        Heap low = new Heap(values, true);
+        Heap high = new Heap(values, false);
+
+        int count = 0;
+
+        for (int j=0; j < Math.min(f, n); j++)
+        {
+            insert(values, low, high, j % w, in[j]);
+            count++;
+            balance(low, high, count);
+        }
+
+        for (int i=0; i < n; i++)
+        {
+            int leave = i - f - 1;
+            int enter = i + f;
+
+            if (leave >= 0)
+            {
+                int slot = leave % w;
+
+                if (!low.remove(slot))
+                    high.remove(slot);
+
+                count--;
+            }
+
+            if (enter < n)
+            {
+                insert(values, low, high, enter % w, in[enter]);
+                count++;
+            }
+
+            balance(low, high, count);
+
+            ret[i] = values[high.top()];
+        }
+
+        return ret;
+    }
+
+    private static double valueOrFirst(double[] in, int k)
+    {
+        return (k >= 0 && k < in.length)? in[k] : in[0];
+    }
+
+    private static double[] extreme(double[] in, int from, int to, boolean max)
+    {
+        int n = in.length;
+        double[] ret = new double[n];
+
+        // indices of the window, their values are monotonic from head to tail
+        int[] deque = new int[Math.max(Math.min(to - from + 1, n), 1)];
+        int head = 0;
+        int size = 0;
+
+        int next = Math.max(from, 0);
+
+        for (int i=0; i < n; i++)
+        {
+            while (size > 0 && deque[head] < i + from)
+            {
+                head = (head + 1) % deque.length;
+                size--;
+            }
+
+            int last = Math.min(i + to, n - 1);
+
+            for (; next <= last; next++)
+            {
+                double v = in[next];
+
+                while (size > 0)
+                {
+                    double t = in[deque[(head + size - 1) % deque.length]];
+
+                    if (max? t > v : t < v)
+                        break;
+
+                    size--;
+                }
+
+                deque[(head + size) % deque.length] = next;
+                size++;
+            }
+
+            if (size == 0)
+                ret[i] = max? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+            else
+                ret[i] = in[deque[head]];
+        }
+
+        return ret;
+    }
+
+    private static void insert(double[] values, Heap low, Heap high, int slot, double v)
+    {
+        values[slot] = v;
+
+        if (high.size() == 0 || v >= values[high.top()])
+            high.push(slot);
+        else
+            low.push(slot);
+    }
+
+    /**
+     * Keep count/2 samples in the lower half, so the top of the upper half
+     * is the median
+     */
+    private static void balance(Heap low, Heap high, int count)
+    {
+        while (low.size() > count / 2)
+            high.push(low.pop());
+
+        while (low.size() < count / 2)
+            low.push(high.pop());
+    }
+
+    /**
+     * Binary heap of slots of a values array, slots can be removed from any
+     * position
+     */
+    private static class Heap
+    {
+        private final double[] values;
+        private final boolean max;
+        private final int[] heap;
+        // position of every slot in the heap, -1 if not in the heap
+        private final int[] position;
+        private int size = 0;
+
+        Heap(double[] values, boolean max)
+        {
+            this.values = values;
+            this.max = max;
+            this.heap = new int[values.length];
+            this.position = new int[values.length];
+
+            Arrays.fill(position, -1);
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        int top()
+        {
+            return heap[0];
+        }
+
+        void push(int slot)
+        {
+            heap[size] = slot;
+            position[slot] = size;
+            size++;
+            up(size - 1);
+        }
+
+        int pop()
+        {
+            int slot = heap[0];
+            remove(slot);
+            return slot;
+        }
+
+        /**
+         * @param slot
+         * @return false if the slot is not in the heap
+         */
+        boolean remove(int slot)
+        {
+            int p = position[slot];
+
+            if (p < 0)
+                return false;
+
+            size--;
+            position[slot] = -1;
+
+            if (p < size)
+            {
+                // the last one takes its place
+                int moved = heap[size];
+
+                heap[p] = moved;
+                position[moved] = p;
+                up(p);
+                down(position[moved]);
+            }
+
+            return true;
+        }
+
+        private boolean before(int a, int b)
+        {
+            return max? values[a] > values[b] : values[a] < values[b];
+        }
+
+        private void up(int p)
+        {
+            while (p > 0)
+            {
+                int parent = (p - 1) / 2;
+
+                if (!before(heap[p], heap[parent]))
+                    break;
+
+                swap(p, parent);
+                p = parent;
+            }
+        }
+
+        private void down(int p)
+        {
+            while (true)
+            {
+                int c = 2*p + 1;
+
+                if (c >= size)
+                    break;
+
+                if (c + 1 < size && before(heap[c + 1], heap[c]))
+                    c++;
+
+                if (!before(heap[c], heap[p]))
+                    break;
+
+                swap(p, c);
+                p = c;
+            }
+        }
+
+        private void swap(int a, int b)
+        {
+            int t = heap[a];
+            heap[a] = heap[b];
+            heap[b] = t;
+            position[heap[a]] = a;
+            position[heap[b]] = b;
+        }
+    }
+}
@@ -38,7 +38,10 @@ public class TestChenSet {
             
             // pulses go from 50 to 300
 
-            ECGProcess.testChenSubset();
+            // optional argument: number of records evaluated in parallel
+            int threads = (args.length > 0)? Integer.parseInt(args[0]) : 1;
+            
+            ECGProcess.testChenSubset(threads);
             
         } catch (Exception ex) {
             Logger.getLogger(ECGProcess.class.getName()).log(Level.SEVERE, null, ex);
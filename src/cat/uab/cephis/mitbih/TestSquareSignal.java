@@ -25,7 +25,6 @@ package cat.uab.cephis.mitbih;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import static cat.uab.cephis.mitbih.ECGProcess.SELECT_VALUE;
@@ -39,14 +38,12 @@ public class TestSquareSignal {
     {
 	try {
 	    
-	    DatReader dr0 = new DatReader(new File(ECGProcess.dir, "101.dat"), 0);
-	    
-	    double[] chunk1 = new double[1000000];
+	    double[] chunk0 = SignalGenerator.greateSquareSignal(10, 1, 360, 150, 1024);
 	    
+	    // only the part of the record that is plotted
+	    double[] chunk1 = new double[chunk0.length];
 	    
-	    int read0  = dr0.get(chunk1);
-	    
-	    double[] chunk0 = SignalGenerator.greateSquareSignal(10, 1, 360, 150, 1024);
+	    new DatFile(new File(ECGProcess.dir, "101.dat")).read(0, chunk1, null, 0, chunk1.length);
 	    
 	    double[] filtered1_1 = ECGProcess.minMaxFilter(chunk0,  1, 1, SELECT_VALUE   );
 	    double[] filtered1_2 = ECGProcess.minMaxFilter(chunk0,  1, 2, SELECT_VALUE   );
@@ -82,8 +79,6 @@ public class TestSquareSignal {
 	    plot.drawYAxis = true;
 	    plot.setData(filtered2_2, chunk0.length);
 	    plot.setVisible(true);
-	} catch (MalformedURLException ex) {
-	    Logger.getLogger(TestSquareSignal.class.getName()).log(Level.SEVERE, null, ex);
 	} catch (IOException ex) {
 	    Logger.getLogger(TestSquareSignal.class.getName()).log(Level.SEVERE, null, ex);
 	}
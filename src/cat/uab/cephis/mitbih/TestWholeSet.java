@@ -38,7 +38,17 @@ public class TestWholeSet {
             
             // pulses go from 50 to 300
 
-            ECGProcess.testWholeSet();
+            // optional arguments: number of records evaluated in parallel
+            // and method (5 single lead, 9 both leads, or a Pipeline 
+            // description such as Pipeline.M5)
+            int threads = (args.length > 0)? Integer.parseInt(args[0]) : 1;
+            String method = (args.length > 1)? args[1] : "5";
+            
+            BeatDetector detector = method.matches("[0-9]+")? 
+                    ECGProcess.getDetector(Integer.parseInt(method)) : 
+                    Pipeline.parse(method);
+            
+            ECGProcess.testWholeSet(threads, detector);
             
         } catch (Exception ex) {
             Logger.getLogger(ECGProcess.class.getName()).log(Level.SEVERE, null, ex);
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) David Castells-Rufas, CEPHIS, Universitat Autonoma de Barcelona  
+ * david.castells@uab.cat
+ * 
+ * This work was used in the publication of "Simple real-time QRS detector with the MaMeMi filter"
+ * available online on: http://www.sciencedirect.com/science/article/pii/S1746809415001032 
+ * 
+ * I encourage that you cite it as:
+ * [*] Castells-Rufas, David, and Jordi Carrabina. "Simple real-time QRS detector with the MaMeMi filter." 
+ *     Biomedical Signal Processing and Control 21 (2015): 137-145.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cat.uab.cephis.mitbih;
+
+import static cat.uab.cephis.mitbih.ECGProcess.SELECT_VALUE;
+
+/**
+ * Front end of the method #5 for a single lead: MaMeMi filter (value and
+ * range), reduceRange and triangleHeight computed sample by sample.
+ *
+ * triangleHeight needs f samples of look-ahead, so it is computed over a
+ * ring buffer of 2f+1 samples and the height of a sample is known f samples
+ * later. The first f and the last f samples have no triangle height, as in
+ * ECGProcess.triangleHeight.
+ *
+ * @author dcr
+ */
+public class TriangleHeightFilter
+{
+    private final MaMeMiFilter filter;
+    private final int f;
+
+    // last 2f+1 samples of the reduced range signal, head is the position 
+    // of the current sample (count % window.length)
+    private final double[] window;
+    private int head = 0;
+    private int count = 0;
+
+    private double value;
+    private double range;
+    private double reduced;
+    private double triangle;
+
+    /**
+     * @param delta MaMeMi filter delta
+     * @param deltaFactor MaMeMi filter delta factor
+     * @param f triangleHeight distance
+     */
+    public TriangleHeightFilter(double delta, double deltaFactor, int f)
+    {
+        this.filter = new MaMeMiFilter(delta, deltaFactor, SELECT_VALUE);
+        this.f = f;
+        this.window = new double[2*f+1];
+    }
+
+    /**
+     * Process the next sample of the signal.
+     * @param sample
+     * @return true if the triangle height of the sample getCount()-f-1 is available
+     */
+    public boolean put(double sample)
+    {
+        value = filter.filter(sample);
+        range = filter.getRange();
+
+        // reduceRange
+        reduced = (value > 0)? Math.max(value - range, 0) : Math.min(value + range, 0);
+
+        window[head] = reduced;
+
+        int i = count - f;
+
+        // positions of the samples i and i-f
+        int xi = (head >= f)? head - f : head - f + window.length;
+        int ai = (head + 1 < window.length)? head + 1 : 0;
+
+        count++;
+        head = ai;
+
+        if (i < 0)
+            return false;
+
+        triangle = 0;
+
+        if (i >= f)
+        {
+            // triangleHeight
+            double x = window[xi];
+            double a = window[ai];
+            double b = reduced;
+
+            if (x > 0) if (x > a && x > b) triangle = x - Math.max(a, b);
+            if (x < 0) if (x < a && x < b) triangle = (x - Math.min(a, b));
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of samples received
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return the output of the MaMeMi filter for the last sample
+     */
+    public double getValue()
+    {
+        return value;
+    }
+
+    /**
+     * @return the range of the MaMeMi filter for the last sample
+     */
+    public double getRange()
+    {
+        return range;
+    }
+
+    /**
+     * @return the reduced range signal for the last sample
+     */
+    public double getReduced()
+    {
+        return reduced;
+    }
+
+    /**
+     * @return the triangle height of the sample getCount()-f-1
+     */
+    public double getTriangle()
+    {
+        return triangle;
+    }
+}